@@ -0,0 +1,71 @@
+package org.vitej.core.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vitej.core.protocol.methods.Address;
+import org.vitej.core.utils.BytesUtils;
+import org.vitej.core.utils.abi.Abi;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ABI encoding and decoding of a token transfer call and its event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AbiBenchmark {
+    private static final String ABI_JSON = "["
+            + "{\"type\":\"function\",\"name\":\"transfer\",\"inputs\":[{\"name\":\"to\",\"type\":\"address\"},{\"name\":\"amount\",\"type\":\"uint256\"},{\"name\":\"memo\",\"type\":\"string\"}]},"
+            + "{\"type\":\"event\",\"name\":\"Transfer\",\"anonymous\":false,\"inputs\":[{\"indexed\":true,\"name\":\"from\",\"type\":\"address\"},{\"indexed\":true,\"name\":\"to\",\"type\":\"address\"},{\"name\":\"value\",\"type\":\"uint256\"}]}"
+            + "]";
+
+    private Abi abi;
+    private Address to;
+    private BigInteger amount;
+    private byte[] encodedCall;
+    private byte[] eventData;
+    private byte[][] eventTopics;
+
+    @Setup
+    public void setUp() {
+        abi = Abi.fromJson(ABI_JSON);
+        to = new Address("vite_32f15c00af28d981033016214c2e19ffc058aaf3b36f4980ae");
+        amount = new BigInteger("500000000000000000");
+        encodedCall = abi.encodeFunction("transfer", to, amount, "benchmark");
+        eventData = BytesUtils.hexStringToBytes("000000000000000000000000000000000000000000000000000000000000007b");
+        eventTopics = new byte[][] {
+                BytesUtils.hexStringToBytes("e9a7da5bfc2bcbf4266adfba50ac5d6fa9ba4d52df50d9359a3974c36c131ce1"),
+                BytesUtils.hexStringToBytes("0000000000000000000000ab24ef68b84e642c0ddca06beec81c9acb1977bb00"),
+                BytesUtils.hexStringToBytes("000000000000000000000032f15c00af28d981033016214c2e19ffc058aaf301")
+        };
+    }
+
+    @Benchmark
+    public byte[] encodeFunction() {
+        return abi.encodeFunction("transfer", to, amount, "benchmark");
+    }
+
+    @Benchmark
+    public List<?> decodeFunction() {
+        return abi.decodeFunction(encodedCall);
+    }
+
+    @Benchmark
+    public List<?> decodeEvent() {
+        return abi.decodeEvent(eventData, eventTopics);
+    }
+}
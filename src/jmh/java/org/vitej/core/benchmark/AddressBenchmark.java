@@ -0,0 +1,38 @@
+package org.vitej.core.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vitej.core.protocol.methods.Address;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Address parsing and formatting, both compute a Blake2b checksum.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddressBenchmark {
+    private final String addressString = "vite_ab24ef68b84e642c0ddca06beec81c9acb1977bbd7da27a87a";
+    private final Address address = new Address(addressString);
+
+    @Benchmark
+    public Address parse() {
+        return new Address(addressString);
+    }
+
+    @Benchmark
+    public String format() {
+        return address.toString();
+    }
+}
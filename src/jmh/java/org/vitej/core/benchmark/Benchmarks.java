@@ -0,0 +1,16 @@
+package org.vitej.core.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixtures shared by the benchmarks
+ */
+final class Benchmarks {
+    static final String MNEMONIC_STRING =
+            "alarm canal scheme actor left length bracket slush tuna garage prepare scout school pizza invest rose fork scorpion make enact false kidney mixed vast";
+    static final List<String> MNEMONIC = Arrays.asList(MNEMONIC_STRING.split(" "));
+
+    private Benchmarks() {
+    }
+}
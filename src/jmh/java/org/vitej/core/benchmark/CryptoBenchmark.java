@@ -0,0 +1,82 @@
+package org.vitej.core.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vitej.core.constants.CommonConstants;
+import org.vitej.core.protocol.methods.Address;
+import org.vitej.core.protocol.methods.Hash;
+import org.vitej.core.protocol.methods.enums.EBlockType;
+import org.vitej.core.protocol.methods.request.TransactionParams;
+import org.vitej.core.utils.BlockUtils;
+import org.vitej.core.wallet.Crypto;
+import org.vitej.core.wallet.KeyPair;
+import org.vitej.core.wallet.Wallet;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block hashing, signing and verification, the cost of every transaction sent.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CryptoBenchmark {
+    private TransactionParams transaction;
+    private byte[] privateKey;
+    private byte[] publicKey;
+    private byte[] message;
+    private byte[] signature;
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = new Wallet(Benchmarks.MNEMONIC).deriveKeyPair(0);
+        privateKey = keyPair.getPrivateKey();
+        publicKey = keyPair.getPublicKey();
+        transaction = new TransactionParams()
+                .setBlockType(EBlockType.SEND_CALL.getValue())
+                .setHeight(100L)
+                .setPreviousHash(new Hash("8e0cbe5bd9d9f4de6ed3b3e3a3f5a4b26e9b4dbd05b6d0c2e0b1f0c6d4b0d9a1"))
+                .setAddress(keyPair.getAddress())
+                .setToAddress(new Address("vite_ab24ef68b84e642c0ddca06beec81c9acb1977bbd7da27a87a"))
+                .setTokenId(CommonConstants.VITE_TOKEN_ID)
+                .setAmount(new BigInteger("1000000000000000000"))
+                .setFee(BigInteger.ZERO)
+                .setData(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        message = BlockUtils.computeHash(transaction).getBytes();
+        signature = Crypto.sign(message, privateKey);
+        data = new byte[256];
+    }
+
+    @Benchmark
+    public Hash computeHash() {
+        return BlockUtils.computeHash(transaction);
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return Crypto.sign(message, privateKey);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return Crypto.verify(signature, message, publicKey);
+    }
+
+    @Benchmark
+    public byte[] digest() {
+        return Crypto.digest(data);
+    }
+}
@@ -0,0 +1,95 @@
+package org.vitej.core.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vitej.core.protocol.ProtocolHelper;
+import org.vitej.core.protocol.methods.response.AccountBlocksResponse;
+import org.vitej.core.protocol.methods.response.SnapshotBlocksResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson decoding of list replies as returned by gvite, the bulk of the bytes a client reads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseDecodingBenchmark {
+    private static final String ACCOUNT_BLOCK = "{\"blockType\":2,\"height\":\"%d\","
+            + "\"hash\":\"9c5ab5f4fca7b4b9a1dd1b0ee6a4ce3bd8a2e8f2e6f0e3a6c47fc2d1b3cd2ea1\","
+            + "\"previousHash\":\"8e0cbe5bd9d9f4de6ed3b3e3a3f5a4b26e9b4dbd05b6d0c2e0b1f0c6d4b0d9a1\","
+            + "\"address\":\"vite_ab24ef68b84e642c0ddca06beec81c9acb1977bbd7da27a87a\","
+            + "\"publicKey\":\"WHZinxslscE+WaIqrUjGu2scOvorgD4Q+DQOOcDBv4M=\","
+            + "\"producer\":\"vite_ab24ef68b84e642c0ddca06beec81c9acb1977bbd7da27a87a\","
+            + "\"fromAddress\":\"vite_ab24ef68b84e642c0ddca06beec81c9acb1977bbd7da27a87a\","
+            + "\"toAddress\":\"vite_32f15c00af28d981033016214c2e19ffc058aaf3b36f4980ae\","
+            + "\"sendBlockHash\":\"0000000000000000000000000000000000000000000000000000000000000000\","
+            + "\"tokenId\":\"tti_5649544520544f4b454e6e40\",\"amount\":\"1000000000000000000\",\"fee\":\"0\","
+            + "\"data\":\"AQIDBAUGBwg=\",\"difficulty\":null,\"nonce\":null,"
+            + "\"signature\":\"wf2QtaoTY7Bdm8sAgAsLD4hVJ3wnQx4iKDvlyU/cH6Wf2RNRAi7dgDNEYIRVZTHoxbcYiBJTe8C1k7C2+OoHBQ==\","
+            + "\"quotaByStake\":\"21000\",\"totalQuota\":\"21000\",\"vmLogHash\":null,"
+            + "\"tokenInfo\":{\"tokenName\":\"VITE\",\"tokenSymbol\":\"VITE\",\"totalSupply\":\"1000000000000000000000000000\",\"decimals\":18,"
+            + "\"owner\":\"vite_0000000000000000000000000000000000000004d28108e76b\",\"tokenId\":\"tti_5649544520544f4b454e6e40\","
+            + "\"maxSupply\":\"115792089237316195423570985008687907853269984665640564039457584007913129639935\","
+            + "\"ownerBurnOnly\":false,\"isReIssuable\":true,\"index\":0,\"isOwnerBurnOnly\":false},"
+            + "\"confirmations\":\"120\",\"firstSnapshotHash\":\"4b1d9cd1f1a0e6b1a3bd6ef0a1fc8e0a9f4a7c6ad0cb5d2e6e2ab36cf5de7e10\","
+            + "\"receiveBlockHeight\":\"12\",\"receiveBlockHash\":\"5fa3b7d9c1e0e7f0b3aa2b4d1c8e6f9a0b7c3d2e1f4a6b8c9d0e1f2a3b4c5d6e\","
+            + "\"timestamp\":1600000000}";
+    private static final String SNAPSHOT_BLOCK = "{\"hash\":\"4b1d9cd1f1a0e6b1a3bd6ef0a1fc8e0a9f4a7c6ad0cb5d2e6e2ab36cf5de7e10\","
+            + "\"previousHash\":\"8e0cbe5bd9d9f4de6ed3b3e3a3f5a4b26e9b4dbd05b6d0c2e0b1f0c6d4b0d9a1\",\"height\":%d,"
+            + "\"producer\":\"vite_ab24ef68b84e642c0ddca06beec81c9acb1977bbd7da27a87a\","
+            + "\"publicKey\":\"WHZinxslscE+WaIqrUjGu2scOvorgD4Q+DQOOcDBv4M=\","
+            + "\"signature\":\"wf2QtaoTY7Bdm8sAgAsLD4hVJ3wnQx4iKDvlyU/cH6Wf2RNRAi7dgDNEYIRVZTHoxbcYiBJTe8C1k7C2+OoHBQ==\","
+            + "\"seed\":0,\"nextSeedHash\":null,\"version\":1,"
+            + "\"snapshotData\":{\"vite_ab24ef68b84e642c0ddca06beec81c9acb1977bbd7da27a87a\":{\"height\":12,\"hash\":\"9c5ab5f4fca7b4b9a1dd1b0ee6a4ce3bd8a2e8f2e6f0e3a6c47fc2d1b3cd2ea1\"}},"
+            + "\"timestamp\":1600000000}";
+
+    @Param({"10", "100"})
+    private int count;
+
+    private final ObjectMapper mapper = ProtocolHelper.getObjectMapper();
+    private byte[] accountBlocks;
+    private byte[] snapshotBlocks;
+
+    @Setup
+    public void setUp() {
+        accountBlocks = reply(ACCOUNT_BLOCK);
+        snapshotBlocks = reply(SNAPSHOT_BLOCK);
+    }
+
+    @Benchmark
+    public AccountBlocksResponse decodeAccountBlocks() throws IOException {
+        return mapper.readValue(accountBlocks, AccountBlocksResponse.class);
+    }
+
+    @Benchmark
+    public SnapshotBlocksResponse decodeSnapshotBlocks() throws IOException {
+        return mapper.readValue(snapshotBlocks, SnapshotBlocksResponse.class);
+    }
+
+    private byte[] reply(String blockFormat) {
+        StringBuilder sb = new StringBuilder("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(String.format(blockFormat, i + 1));
+        }
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
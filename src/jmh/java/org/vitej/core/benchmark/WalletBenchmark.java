@@ -0,0 +1,31 @@
+package org.vitej.core.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vitej.core.wallet.KeyPair;
+import org.vitej.core.wallet.Mnemonic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key pair derivation from a mnemonic, dominated by PBKDF2 of the seed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WalletBenchmark {
+    @Benchmark
+    public KeyPair deriveKeyPair() {
+        return Mnemonic.deriveKeyPair(Benchmarks.MNEMONIC_STRING, 0);
+    }
+}
@@ -0,0 +1,10 @@
+package org.vitej.core.exception;
+
+/**
+ * Request rejected because the circuit breaker of its endpoint is open, the endpoint is failing
+ */
+public class CircuitOpenException extends RequestRejectedException {
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
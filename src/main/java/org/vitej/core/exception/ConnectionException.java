@@ -1,7 +1,23 @@
 package org.vitej.core.exception;
 
 public class ConnectionException extends RuntimeException {
+    private final int code;
+
     public ConnectionException(String message) {
+        this(message, -1);
+    }
+
+    public ConnectionException(String message, int code) {
         super(message);
+        this.code = code;
+    }
+
+    /**
+     * Return HTTP status code of the failed request
+     *
+     * @return HTTP status code, -1 if unknown
+     */
+    public int getCode() {
+        return code;
     }
 }
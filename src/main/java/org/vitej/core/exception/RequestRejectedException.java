@@ -0,0 +1,7 @@
+package org.vitej.core.exception;
+
+public class RequestRejectedException extends RuntimeException {
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+}
@@ -1,15 +1,29 @@
 package org.vitej.core.protocol;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.*;
 
 public class Async {
     private static final ExecutorService executor = Executors.newCachedThreadPool();
+    private static final Executor sharedExecutor = executor::execute;
 
     static {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(executor)));
     }
 
     public static <T> CompletableFuture<T> run(Callable<T> callable) {
+        return run(callable, executor);
+    }
+
+    /**
+     * Run a blocking call on the given executor
+     *
+     * @param callable Blocking call
+     * @param executor Executor the call runs on
+     * @param <T>      Result type
+     * @return Future completed with the result of the call
+     */
+    public static <T> CompletableFuture<T> run(Callable<T> callable, Executor executor) {
         CompletableFuture<T> result = new CompletableFuture<>();
         CompletableFuture.runAsync(
                 () -> {
@@ -23,11 +37,54 @@ public class Async {
         return result;
     }
 
+    /**
+     * Return the shared executor used when no executor is configured. It is shared by the whole
+     * library, so it is handed out as a plain Executor that cannot be shut down.
+     *
+     * @return Shared cached thread pool
+     */
+    public static Executor defaultExecutor() {
+        return sharedExecutor;
+    }
+
+    /**
+     * Return whether the running JVM supports virtual threads (JDK 21+)
+     *
+     * @return True if {@link #newVirtualThreadPerTaskExecutor()} can be used
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.FACTORY != null;
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread for each task, so that blocking calls
+     * do not hold a platform thread each. Looked up reflectively, the library itself still
+     * targets Java 8.
+     *
+     * @return Virtual-thread-per-task executor
+     * @throws UnsupportedOperationException The running JVM has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (VirtualThreads.FACTORY == null) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or later, running " + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) VirtualThreads.FACTORY.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Failed to create virtual thread executor", e);
+        }
+    }
+
     private static int getCpuCount() {
         return Runtime.getRuntime().availableProcessors();
     }
 
-
+    /**
+     * Create a scheduled executor owned by the caller, who may shut it down. It is shut down at
+     * JVM exit otherwise.
+     *
+     * @return New scheduled thread pool
+     */
     public static ScheduledExecutorService defaultExecutorService() {
         ScheduledExecutorService scheduledExecutorService =
                 Executors.newScheduledThreadPool(getCpuCount());
@@ -35,6 +92,14 @@ public class Async {
         return scheduledExecutorService;
     }
 
+    /**
+     * Return the scheduler shared by the library, request deadlines are scheduled on it. It is not
+     * handed out, so no caller can shut it down.
+     */
+    static ScheduledExecutorService scheduler() {
+        return ScheduledExecutorHolder.INSTANCE;
+    }
+
     private static void shutdown(ExecutorService executorService) {
         executorService.shutdown();
         try {
@@ -49,4 +114,24 @@ public class Async {
             Thread.currentThread().interrupt();
         }
     }
+
+    private static class ScheduledExecutorHolder {
+        private static final ScheduledExecutorService INSTANCE = Executors.newScheduledThreadPool(getCpuCount());
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(INSTANCE)));
+        }
+    }
+
+    private static class VirtualThreads {
+        private static final Method FACTORY = lookup();
+
+        private static Method lookup() {
+            try {
+                return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+    }
 }
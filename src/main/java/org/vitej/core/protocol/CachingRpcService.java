@@ -0,0 +1,233 @@
+package org.vitej.core.protocol;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.AccountBlock;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.methods.response.SnapshotBlock;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * RpcService decorator that caches replies of queries about data that does not change once
+ * confirmed. Every cached method has its own size-bounded LRU cache keyed by method and params,
+ * optionally with a time to live, and records hit and miss counts.
+ * Cached by default:
+ * <ul>
+ * <li>ledger_getAccountBlockByHash, ledger_getCompleteBlockByHash: once the block is snapshotted
+ * and, for send blocks, received</li>
+ * <li>ledger_getSnapshotBlockByHash</li>
+ * <li>ledger_getSnapshotBlockByHeight: once the height is finalityDepth below the highest
+ * snapshot height seen in replies</li>
+ * <li>contract_getContractInfo</li>
+ * <li>contract_getTokenInfoById: for 10 minutes, the total supply of a token can change</li>
+ * </ul>
+ * Replies with an error or without result are never cached. Every caller gets its own copy of a
+ * cached response, carrying the id of its request.
+ * The confirmations of an account block grow with every snapshot block, so cached account blocks
+ * are stored without them and have confirmations null. Send the request to the node directly
+ * when the confirmations matter.
+ */
+public class CachingRpcService extends DelegatingRpcService {
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+    public static final long DEFAULT_FINALITY_DEPTH = 100;
+
+    private final Map<String, MethodCache> caches = new ConcurrentHashMap<>();
+    private final long finalityDepth;
+    private final AtomicLong highestSnapshotHeight = new AtomicLong();
+
+    public CachingRpcService(RpcService delegate) {
+        this(delegate, DEFAULT_MAXIMUM_SIZE, DEFAULT_FINALITY_DEPTH);
+    }
+
+    /**
+     * @param delegate      Service the requests are sent with on a miss
+     * @param maximumSize   Maximum number of entries of each default method cache
+     * @param finalityDepth Snapshot blocks this far below the highest seen height are cached by height
+     */
+    public CachingRpcService(RpcService delegate, long maximumSize, long finalityDepth) {
+        super(delegate);
+        this.finalityDepth = finalityDepth;
+        cache("ledger_getAccountBlockByHash", maximumSize, 0, TimeUnit.SECONDS, CachingRpcService::isSettledAccountBlock);
+        cache("ledger_getCompleteBlockByHash", maximumSize, 0, TimeUnit.SECONDS, CachingRpcService::isSettledAccountBlock);
+        cache("ledger_getSnapshotBlockByHash", maximumSize, 0, TimeUnit.SECONDS, CachingRpcService::hasResult);
+        cache("ledger_getSnapshotBlockByHeight", maximumSize, 0, TimeUnit.SECONDS, this::isFinalSnapshotBlock);
+        cache("contract_getContractInfo", maximumSize, 0, TimeUnit.SECONDS, CachingRpcService::hasResult);
+        cache("contract_getTokenInfoById", maximumSize, 10, TimeUnit.MINUTES, CachingRpcService::hasResult);
+    }
+
+    /**
+     * Cache replies of another method, or replace the cache of a default one
+     *
+     * @param method      RPC method name
+     * @param maximumSize Maximum number of entries, least recently used entries are evicted first
+     * @param ttl         Time to live of an entry, 0 for entries that never expire
+     * @param unit        Time unit of ttl
+     * @param cacheable   Whether a successful reply may be cached
+     * @return This service
+     */
+    public CachingRpcService cache(String method, long maximumSize, long ttl, TimeUnit unit, Predicate<Response<?>> cacheable) {
+        Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive");
+        Preconditions.checkArgument(ttl >= 0, "ttl must not be negative");
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats();
+        if (ttl > 0) {
+            builder.expireAfterWrite(ttl, unit);
+        }
+        caches.put(method, new MethodCache(builder.build(), cacheable));
+        return this;
+    }
+
+    /**
+     * Stop caching replies of a method
+     *
+     * @param method RPC method name
+     * @return This service
+     */
+    public CachingRpcService noCache(String method) {
+        caches.remove(method);
+        return this;
+    }
+
+    /**
+     * @return Hit and miss counts of every method cache
+     */
+    public Map<String, CacheStats> getStats() {
+        Map<String, CacheStats> stats = new HashMap<>();
+        caches.forEach((method, cache) -> stats.put(method, cache.cache.stats()));
+        return Collections.unmodifiableMap(stats);
+    }
+
+    public void invalidateAll() {
+        caches.values().forEach(cache -> cache.cache.invalidateAll());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        MethodCache cache = caches.get(request.getMethod());
+        if (cache == null) {
+            return observe(delegate.send(request, responseType));
+        }
+        String key = ProtocolHelper.requestKey(request);
+        Response<?> cached = cache.cache.getIfPresent(key);
+        if (responseType.isInstance(cached)) {
+            return (T) ProtocolHelper.copyFor(cached, request);
+        }
+        return store(cache, key, observe(delegate.send(request, responseType)));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        MethodCache cache = caches.get(request.getMethod());
+        if (cache == null) {
+            return delegate.sendAsync(request, responseType).thenApply(this::observe);
+        }
+        String key = ProtocolHelper.requestKey(request);
+        Response<?> cached = cache.cache.getIfPresent(key);
+        if (responseType.isInstance(cached)) {
+            return CompletableFuture.completedFuture((T) ProtocolHelper.copyFor(cached, request));
+        }
+        return delegate.sendAsync(request, responseType).thenApply(response -> store(cache, key, observe(response)));
+    }
+
+    private <T extends Response> T store(MethodCache cache, String key, T response) {
+        if (response != null && !response.hasError() && cache.cacheable.test(response)) {
+            cache.cache.put(key, snapshot(response));
+        }
+        return response;
+    }
+
+    /**
+     * Return the reply to cache, a copy so that the caller of the miss can not modify it, without
+     * confirmations if it holds an account block
+     */
+    private static Response<?> snapshot(Response<?> response) {
+        try {
+            Response<?> copy = ProtocolHelper.copy(response);
+            if (copy.getResult() instanceof AccountBlock) {
+                clearConfirmations((AccountBlock) copy.getResult());
+            }
+            return copy;
+        } catch (IllegalArgumentException e) {
+            return response;
+        }
+    }
+
+    static void clearConfirmations(AccountBlock block) {
+        block.setConfirmations(null);
+        if (block.getTriggeredSendBlockList() != null) {
+            for (AccountBlock triggered : block.getTriggeredSendBlockList()) {
+                clearConfirmations(triggered);
+            }
+        }
+    }
+
+    /**
+     * Track the snapshot chain height from replies, it decides which heights are final
+     */
+    private <T extends Response> T observe(T response) {
+        if (response == null || response.hasError()) {
+            return response;
+        }
+        Long height = null;
+        if (response instanceof SnapshotChainHeightResponse) {
+            height = ((SnapshotChainHeightResponse) response).getHeight();
+        } else if (response.getResult() instanceof SnapshotBlock) {
+            height = ((SnapshotBlock) response.getResult()).getHeight();
+        }
+        if (height != null) {
+            highestSnapshotHeight.accumulateAndGet(height, Math::max);
+        }
+        return response;
+    }
+
+    private boolean isFinalSnapshotBlock(Response<?> response) {
+        if (!(response.getResult() instanceof SnapshotBlock)) {
+            return false;
+        }
+        Long height = ((SnapshotBlock) response.getResult()).getHeight();
+        return height != null && height <= highestSnapshotHeight.get() - finalityDepth;
+    }
+
+    private static boolean isSettledAccountBlock(Response<?> response) {
+        return response.getResult() instanceof AccountBlock && isSettled((AccountBlock) response.getResult());
+    }
+
+    /**
+     * Whether an account block will not change anymore
+     */
+    static boolean isSettled(AccountBlock block) {
+        if (block.getFirstSnapshotHashRaw() == null) {
+            return false;
+        }
+        // the receive block of a send block is still filled in later
+        return !Boolean.TRUE.equals(block.isSendBlock()) || block.getReceiveBlockHashRaw() != null;
+    }
+
+    private static boolean hasResult(Response<?> response) {
+        return response.getResult() != null;
+    }
+
+    private static class MethodCache {
+        private final Cache<String, Response<?>> cache;
+        private final Predicate<Response<?>> cacheable;
+
+        MethodCache(Cache<String, Response<?>> cache, Predicate<Response<?>> cacheable) {
+            this.cache = cache;
+            this.cacheable = cacheable;
+        }
+    }
+}
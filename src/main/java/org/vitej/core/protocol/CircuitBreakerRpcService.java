@@ -0,0 +1,291 @@
+package org.vitej.core.protocol;
+
+import com.google.common.base.Preconditions;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vitej.core.exception.CircuitOpenException;
+import org.vitej.core.exception.RequestRejectedException;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker in front of one endpoint. The outcomes of the last windowSize calls are kept;
+ * once at least minimumCalls are recorded and the rate of transient failures or of calls slower
+ * than slowCallDuration reaches its threshold, the breaker opens and calls fail immediately with
+ * {@link CircuitOpenException}. After openDuration the breaker lets halfOpenCalls trial calls
+ * through, and closes again if their failure and slow-call rates are below the thresholds.
+ * A call only counts in the state it was let through in, calls still running when the state
+ * changes are not recorded.
+ * Wrap each endpoint separately, e.g. before handing them to {@link LoadBalancedRpcService}.
+ */
+public class CircuitBreakerRpcService extends DelegatingRpcService {
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreakerRpcService.class);
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.8;
+    public static final long DEFAULT_SLOW_CALL_DURATION_MILLIS = 5000;
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30000;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Emitted on every state transition
+     */
+    public static class StateTransition {
+        private final State from;
+        private final State to;
+        private final long timestamp;
+
+        public StateTransition(State from, State to, long timestamp) {
+            this.from = from;
+            this.to = to;
+            this.timestamp = timestamp;
+        }
+
+        public State getFrom() {
+            return from;
+        }
+
+        public State getTo() {
+            return to;
+        }
+
+        /**
+         * @return Time of the transition in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return from + " -> " + to;
+        }
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final Subject<StateTransition> transitions = PublishSubject.<StateTransition>create().toSerialized();
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAt;
+    private int halfOpenPermits;
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int recorded;
+    private int next;
+
+    public CircuitBreakerRpcService(RpcService delegate) {
+        this(delegate, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE_THRESHOLD,
+                DEFAULT_SLOW_CALL_RATE_THRESHOLD, DEFAULT_SLOW_CALL_DURATION_MILLIS, DEFAULT_OPEN_DURATION_MILLIS,
+                DEFAULT_HALF_OPEN_CALLS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param delegate              Endpoint to protect
+     * @param windowSize            Number of recent calls the rates are computed over
+     * @param minimumCalls          Rates are only evaluated once this many calls are recorded
+     * @param failureRateThreshold  Failure rate that opens the breaker, in (0, 1]
+     * @param slowCallRateThreshold Slow-call rate that opens the breaker, in (0, 1]
+     * @param slowCallDuration      Calls taking longer count as slow
+     * @param openDuration          How long the breaker stays open before trial calls are let through
+     * @param halfOpenCalls         Number of trial calls in half-open state
+     * @param unit                  Time unit of slowCallDuration and openDuration
+     */
+    public CircuitBreakerRpcService(RpcService delegate, int windowSize, int minimumCalls, double failureRateThreshold,
+                                    double slowCallRateThreshold, long slowCallDuration, long openDuration,
+                                    int halfOpenCalls, TimeUnit unit) {
+        super(delegate);
+        Preconditions.checkArgument(0 < minimumCalls && minimumCalls <= windowSize, "invalid window size");
+        Preconditions.checkArgument(failureRateThreshold > 0 && failureRateThreshold <= 1, "invalid failure rate threshold");
+        Preconditions.checkArgument(slowCallRateThreshold > 0 && slowCallRateThreshold <= 1, "invalid slow call rate threshold");
+        Preconditions.checkArgument(halfOpenCalls > 0, "halfOpenCalls must be positive");
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = unit.toNanos(slowCallDuration);
+        this.openNanos = unit.toNanos(openDuration);
+        this.halfOpenCalls = halfOpenCalls;
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        return call(() -> delegate.send(request, responseType));
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return callAsync(() -> delegate.sendAsync(request, responseType));
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        return call(() -> delegate.sendBatch(requests));
+    }
+
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        return callAsync(() -> delegate.sendBatchAsync(requests));
+    }
+
+    @Override
+    public <T extends Response> T stream(Request request, Class<T> responseType, Consumer<Object> consumer) throws IOException {
+        return call(() -> delegate.stream(request, responseType, consumer));
+    }
+
+    /**
+     * @return Current state of the breaker
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return State transitions of the breaker, emitted on the thread that caused them
+     */
+    public Flowable<StateTransition> stateTransitions() {
+        return transitions.toFlowable(BackpressureStrategy.BUFFER);
+    }
+
+    private <R> R call(Call<R> call) throws IOException {
+        long permitted = acquirePermission();
+        long start = System.nanoTime();
+        try {
+            R result = call.call();
+            record(permitted, start, null);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            record(permitted, start, e);
+            throw e;
+        }
+    }
+
+    private <R> CompletableFuture<R> callAsync(Supplier<CompletableFuture<R>> call) {
+        long permitted;
+        try {
+            permitted = acquirePermission();
+        } catch (RequestRejectedException e) {
+            CompletableFuture<R> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+        long start = System.nanoTime();
+        CompletableFuture<R> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            // record it, a half-open trial permit must not be lost
+            record(permitted, start, e);
+            CompletableFuture<R> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        future.whenComplete((r, t) -> record(permitted, start, t));
+        return future;
+    }
+
+    /**
+     * @return Generation of the state the call is let through in
+     */
+    private long acquirePermission() {
+        long permitted;
+        StateTransition transition = null;
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+                transition = transitionTo(State.HALF_OPEN);
+            }
+            if (state == State.OPEN || (state == State.HALF_OPEN && halfOpenPermits <= 0)) {
+                throw new CircuitOpenException("Circuit breaker is " + state);
+            }
+            if (state == State.HALF_OPEN) {
+                halfOpenPermits--;
+            }
+            permitted = generation;
+        }
+        publish(transition);
+        return permitted;
+    }
+
+    private void record(long permitted, long start, Throwable failure) {
+        boolean isSlow = System.nanoTime() - start > slowCallNanos;
+        boolean isFailure = failure != null && Failures.isTransient(failure);
+        StateTransition transition = null;
+        synchronized (this) {
+            if (state == State.OPEN || permitted != generation) {
+                return;
+            }
+            failed[next] = isFailure;
+            slow[next] = isSlow;
+            next = (next + 1) % windowSize;
+            recorded = Math.min(recorded + 1, windowSize);
+
+            int required = state == State.HALF_OPEN ? halfOpenCalls : minimumCalls;
+            if (recorded >= required) {
+                int failures = 0;
+                int slowCalls = 0;
+                for (int i = 0, index = next; i < recorded; i++) {
+                    index = (index - 1 + windowSize) % windowSize;
+                    failures += failed[index] ? 1 : 0;
+                    slowCalls += slow[index] ? 1 : 0;
+                }
+                boolean tripped = failures >= failureRateThreshold * recorded || slowCalls >= slowCallRateThreshold * recorded;
+                if (tripped) {
+                    transition = transitionTo(State.OPEN);
+                } else if (state == State.HALF_OPEN) {
+                    transition = transitionTo(State.CLOSED);
+                }
+            }
+        }
+        publish(transition);
+    }
+
+    private StateTransition transitionTo(State to) {
+        StateTransition transition = new StateTransition(state, to, System.currentTimeMillis());
+        state = to;
+        generation++;
+        recorded = 0;
+        next = 0;
+        if (to == State.OPEN) {
+            openedAt = System.nanoTime();
+        } else if (to == State.HALF_OPEN) {
+            halfOpenPermits = halfOpenCalls;
+        }
+        return transition;
+    }
+
+    private void publish(StateTransition transition) {
+        if (transition != null) {
+            log.warn("Circuit breaker {}", transition);
+            transitions.onNext(transition);
+        }
+    }
+
+    private interface Call<R> {
+        R call() throws IOException;
+    }
+}
@@ -0,0 +1,182 @@
+package org.vitej.core.protocol;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RpcService decorator that holds {@link #sendAsync} calls for a short window, or until
+ * maxBatchSize requests are waiting, and flushes them to the wrapped service as one
+ * JSON-RPC batch. Each caller's future is completed from its own reply in the batch.
+ * Blocking {@link #send} calls are not held back. Requests with a deadline are sent on their own,
+ * a batch would fail every caller in it at the earliest deadline.
+ */
+public class CoalescingRpcService extends DelegatingRpcService {
+    public static final long DEFAULT_WINDOW_MILLIS = 2;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("vitej-coalescing-%d").setDaemon(true).build());
+
+    private final Object lock = new Object();
+    private List<PendingRequest> pending = new ArrayList<>();
+    private ScheduledFuture<?> flushTimer;
+    private long window;
+
+    public CoalescingRpcService(RpcService delegate) {
+        this(delegate, DEFAULT_WINDOW_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param delegate     Service the batches are sent with
+     * @param window       How long the first request of a batch waits for others
+     * @param unit         Time unit of window
+     * @param maxBatchSize Batch is flushed immediately once this many requests are waiting
+     */
+    public CoalescingRpcService(RpcService delegate, long window, TimeUnit unit, int maxBatchSize) {
+        super(delegate);
+        Preconditions.checkArgument(window >= 0, "window must not be negative");
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        if (request.hasDeadline()) {
+            return delegate.sendAsync(request, responseType);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        List<PendingRequest> batch = null;
+        synchronized (lock) {
+            pending.add(new PendingRequest(request, result));
+            if (pending.size() >= maxBatchSize) {
+                batch = drain();
+            } else if (pending.size() == 1) {
+                long current = window;
+                flushTimer = scheduler.schedule(() -> flushWindow(current), windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+        return result;
+    }
+
+    /**
+     * Send the waiting requests now without waiting for the window to pass
+     */
+    public void flush() {
+        List<PendingRequest> batch;
+        synchronized (lock) {
+            batch = drain();
+        }
+        dispatch(batch);
+    }
+
+    /**
+     * Flush on the timer, unless the window was already flushed because it filled up
+     */
+    private void flushWindow(long expected) {
+        List<PendingRequest> batch;
+        synchronized (lock) {
+            if (window != expected) {
+                return;
+            }
+            batch = drain();
+        }
+        dispatch(batch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        scheduler.shutdown();
+        super.close();
+    }
+
+    /**
+     * Take the waiting requests and start a new window, the timer of this one must not flush the
+     * next one early
+     */
+    private List<PendingRequest> drain() {
+        window++;
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        List<PendingRequest> batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(List<PendingRequest> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            PendingRequest single = batch.get(0);
+            CompletableFuture<? extends Response> reply;
+            try {
+                reply = delegate.sendAsync(single.request, single.request.getResponseType());
+            } catch (RuntimeException e) {
+                single.result.completeExceptionally(e);
+                return;
+            }
+            reply.whenComplete((response, t) -> {
+                if (t != null) {
+                    single.result.completeExceptionally(t);
+                } else {
+                    single.result.complete(response);
+                }
+            });
+            return;
+        }
+
+        List<Request<?, ?>> requests = new ArrayList<>(batch.size());
+        for (PendingRequest p : batch) {
+            requests.add(p.request);
+        }
+        CompletableFuture<List<Response<?>>> replies;
+        try {
+            replies = delegate.sendBatchAsync(requests);
+        } catch (RuntimeException e) {
+            // e.g. the same request sent twice within one window
+            batch.forEach(p -> p.result.completeExceptionally(e));
+            return;
+        }
+        replies.whenComplete((responses, t) -> {
+            for (int i = 0; i < batch.size(); i++) {
+                if (t != null) {
+                    batch.get(i).result.completeExceptionally(t);
+                } else {
+                    batch.get(i).result.complete(responses.get(i));
+                }
+            }
+        });
+    }
+
+    private static class PendingRequest {
+        private final Request<?, ?> request;
+        @SuppressWarnings("rawtypes")
+        private final CompletableFuture result;
+
+        PendingRequest(Request<?, ?> request, CompletableFuture<?> result) {
+            this.request = request;
+            this.result = result;
+        }
+    }
+}
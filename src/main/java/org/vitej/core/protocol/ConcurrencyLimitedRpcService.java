@@ -0,0 +1,387 @@
+package org.vitej.core.protocol;
+
+import com.google.common.base.Preconditions;
+import org.vitej.core.exception.ConnectionException;
+import org.vitej.core.exception.RequestRejectedException;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * RpcService decorator that limits the number of requests in flight to the node. The limit is
+ * adjusted with AIMD: it grows by one per round of successful requests and is multiplied by the
+ * backoff ratio when the node shows overload, i.e. a connection failure, a JSON-RPC error with
+ * one of the overload codes, or a latency above latencyTolerance times the lowest recent latency
+ * of the same method. Like TCP, the limit backs off at most once per round trip: only requests
+ * sent after the last decrease can decrease it again, so a burst of overloaded replies to the
+ * same round counts once. Batches are only judged by their errors, their latency depends on their size.
+ * Requests above the limit wait in a bounded queue, and fail fast with
+ * {@link RequestRejectedException} when the queue is full. A request whose deadline passes while
+ * it waits fails with an {@link InterruptedIOException}.
+ */
+public class ConcurrencyLimitedRpcService extends DelegatingRpcService {
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 1000;
+    public static final int DEFAULT_MAX_QUEUE = 1000;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    /**
+     * Internal error only, -32000 is what the node returns for any failed call such as a rejected transaction
+     */
+    public static final Set<Integer> DEFAULT_OVERLOAD_ERROR_CODES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(-32603)));
+
+    private static final int MIN_LATENCY_WINDOW = 500;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final Set<Integer> overloadErrorCodes;
+
+    private final Object lock = new Object();
+    private final Deque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    private final Map<String, LatencyBaseline> baselines = new HashMap<>();
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    public ConcurrencyLimitedRpcService(RpcService delegate) {
+        this(delegate, DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_MAX_QUEUE,
+                DEFAULT_BACKOFF_RATIO, DEFAULT_LATENCY_TOLERANCE, DEFAULT_OVERLOAD_ERROR_CODES);
+    }
+
+    /**
+     * @param delegate           Service the requests are sent with
+     * @param initialLimit       Limit to start with
+     * @param minLimit           Lower bound of the limit
+     * @param maxLimit           Upper bound of the limit
+     * @param maxQueue           Maximum number of requests waiting for a permit
+     * @param backoffRatio       Limit is multiplied by this ratio on overload, in (0, 1)
+     * @param latencyTolerance   Latency above this multiple of the lowest recent latency counts as overload
+     * @param overloadErrorCodes JSON-RPC error codes that count as overload
+     */
+    public ConcurrencyLimitedRpcService(RpcService delegate, int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                                        double backoffRatio, double latencyTolerance, Set<Integer> overloadErrorCodes) {
+        super(delegate);
+        Preconditions.checkArgument(0 < minLimit && minLimit <= initialLimit && initialLimit <= maxLimit, "invalid limits");
+        Preconditions.checkArgument(maxQueue >= 0, "maxQueue must not be negative");
+        Preconditions.checkArgument(backoffRatio > 0 && backoffRatio < 1, "backoffRatio must be in (0, 1)");
+        Preconditions.checkArgument(latencyTolerance > 1, "latencyTolerance must be greater than 1");
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.overloadErrorCodes = new HashSet<>(overloadErrorCodes);
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        return call(() -> delegate.send(request, responseType), response -> response, request, request.getMethod());
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return withPermit(() -> delegate.sendAsync(request, responseType), response -> response, request, request.getMethod());
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        return call(() -> delegate.sendBatch(requests), ConcurrencyLimitedRpcService::firstError, requests, null);
+    }
+
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        return withPermit(() -> delegate.sendBatchAsync(requests), ConcurrencyLimitedRpcService::firstError, requests, null);
+    }
+
+    @Override
+    public <T extends Response> T stream(Request request, Class<T> responseType, Consumer<Object> consumer) throws IOException {
+        return call(() -> delegate.stream(request, responseType, consumer), response -> response, request, request.getMethod());
+    }
+
+    /**
+     * @return Current concurrency limit
+     */
+    public int getLimit() {
+        synchronized (lock) {
+            return (int) limit;
+        }
+    }
+
+    /**
+     * @return Number of requests in flight
+     */
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * @return Number of requests waiting for a permit
+     */
+    public int getQueued() {
+        synchronized (lock) {
+            return waiting.size();
+        }
+    }
+
+    /**
+     * @param method Method whose latency baseline the call is judged by, null to not judge its latency
+     */
+    private <R> R call(Call<R> call, Function<R, Response<?>> responseOf, Object payload, String method) throws IOException {
+        awaitPermit(payload);
+        long start = System.nanoTime();
+        R result = null;
+        Throwable failure = null;
+        try {
+            result = call.call();
+            return result;
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            release(start, method, failure == null ? responseOf.apply(result) : null, failure);
+        }
+    }
+
+    private <R> CompletableFuture<R> withPermit(Supplier<CompletableFuture<R>> call, Function<R, Response<?>> responseOf,
+                                                Object payload, String method) {
+        CompletableFuture<Void> permit = acquire();
+        CompletableFuture<R> result = new CompletableFuture<>();
+        permit.whenComplete((v, rejected) -> {
+            if (rejected != null) {
+                result.completeExceptionally(rejected);
+                return;
+            }
+            if (result.isDone()) {
+                // cancelled while the permit was handed over
+                handOn();
+                return;
+            }
+            long start = System.nanoTime();
+            CompletableFuture<R> future;
+            try {
+                future = call.get();
+            } catch (RuntimeException e) {
+                release(start, method, null, e);
+                result.completeExceptionally(e);
+                return;
+            }
+            future.whenComplete((r, t) -> {
+                release(start, method, t == null ? responseOf.apply(r) : null, t);
+                if (t != null) {
+                    result.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                } else {
+                    result.complete(r);
+                }
+            });
+            result.whenComplete((r, t) -> {
+                if (result.isCancelled()) {
+                    future.cancel(true);
+                }
+            });
+        });
+        if (!permit.isDone()) {
+            long remaining = Service.remainingNanos(payload);
+            if (remaining != Long.MAX_VALUE) {
+                ScheduledFuture<?> timeout = Async.scheduler().schedule(
+                        () -> withdraw(permit, Service.deadlineExceeded(payload)), Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                permit.whenComplete((v, t) -> timeout.cancel(false));
+            }
+        }
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) {
+                // frees the queue slot if the request is still waiting
+                withdraw(permit, null);
+            }
+        });
+        return result;
+    }
+
+    private void awaitPermit(Object payload) throws IOException {
+        CompletableFuture<Void> permit = acquire();
+        try {
+            long remaining = Service.remainingNanos(payload);
+            if (remaining == Long.MAX_VALUE) {
+                permit.get();
+            } else {
+                permit.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            abandon(permit);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a concurrency permit", e);
+        } catch (TimeoutException e) {
+            abandon(permit);
+            throw Service.deadlineExceeded(payload);
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Give up waiting for a permit. A permit granted in the meantime is handed on, otherwise it
+     * would count as in flight forever.
+     */
+    private void abandon(CompletableFuture<Void> permit) {
+        if (!withdraw(permit, null) && !permit.isCompletedExceptionally()) {
+            handOn();
+        }
+    }
+
+    /**
+     * @param failure Failure to complete the waiter with, null to cancel it
+     * @return Whether the waiter was withdrawn, false when it already holds a permit
+     */
+    private boolean withdraw(CompletableFuture<Void> permit, Throwable failure) {
+        synchronized (lock) {
+            // a waiter still in the queue has not been granted a permit
+            if (!waiting.remove(permit)) {
+                return false;
+            }
+        }
+        if (failure != null) {
+            permit.completeExceptionally(failure);
+        } else {
+            permit.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * Return an unused permit without judging the limit.
+     */
+    private void handOn() {
+        synchronized (lock) {
+            inFlight--;
+        }
+        grantWaiting();
+    }
+
+    private CompletableFuture<Void> acquire() {
+        synchronized (lock) {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> permit = new CompletableFuture<>();
+            if (waiting.size() >= maxQueue) {
+                permit.completeExceptionally(new RequestRejectedException(
+                        String.format("Concurrency limit %d reached and %d requests queued", (int) limit, waiting.size())));
+            } else {
+                waiting.add(permit);
+            }
+            return permit;
+        }
+    }
+
+    private void release(long start, String method, Response<?> response, Throwable failure) {
+        long latency = System.nanoTime() - start;
+        boolean overloaded = isOverload(response, failure);
+        synchronized (lock) {
+            inFlight--;
+            if (failure == null && method != null) {
+                overloaded |= baselines.computeIfAbsent(method, m -> new LatencyBaseline()).record(latency);
+            }
+            if (overloaded) {
+                // requests in flight at the last decrease saw the old limit, the decrease already covers them
+                if (start - lastDecreaseNanos >= 0) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecreaseNanos = System.nanoTime();
+                }
+            } else if (failure == null) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        grantWaiting();
+    }
+
+    private void grantWaiting() {
+        while (true) {
+            CompletableFuture<Void> permit;
+            synchronized (lock) {
+                if (inFlight >= (int) limit || waiting.isEmpty()) {
+                    return;
+                }
+                permit = waiting.poll();
+                inFlight++;
+            }
+            if (!permit.complete(null)) {
+                // cancelled while waiting, hand the permit to the next one
+                synchronized (lock) {
+                    inFlight--;
+                }
+            }
+        }
+    }
+
+    private boolean isOverload(Response<?> response, Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause instanceof IOException || cause instanceof ConnectionException) {
+            return true;
+        }
+        return response != null && response.hasError() && overloadErrorCodes.contains(response.getError().getCode());
+    }
+
+    private static Response<?> firstError(List<Response<?>> responses) {
+        for (Response<?> response : responses) {
+            if (response != null && response.hasError()) {
+                return response;
+            }
+        }
+        return null;
+    }
+
+    private interface Call<R> {
+        R call() throws IOException;
+    }
+
+    /**
+     * Lowest recent latency of one method, the latency it has without load
+     */
+    private class LatencyBaseline {
+        private long minLatencyNanos = Long.MAX_VALUE;
+        private long windowMinLatencyNanos = Long.MAX_VALUE;
+        private int windowSamples;
+
+        /**
+         * @return Whether the latency shows overload
+         */
+        boolean record(long latency) {
+            windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latency);
+            if (++windowSamples >= MIN_LATENCY_WINDOW || minLatencyNanos == Long.MAX_VALUE) {
+                // follow a drifting no-load latency instead of keeping an all-time minimum
+                minLatencyNanos = windowMinLatencyNanos;
+                windowMinLatencyNanos = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+            return latency > minLatencyNanos * latencyTolerance;
+        }
+    }
+}
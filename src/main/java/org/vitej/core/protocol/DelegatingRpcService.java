@@ -0,0 +1,62 @@
+package org.vitej.core.protocol;
+
+import io.reactivex.Flowable;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.websocket.events.Notification;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Base class of RpcService decorators, forwards every call to the wrapped service.
+ * Subclasses override the calls they are interested in.
+ */
+public abstract class DelegatingRpcService implements RpcService {
+    protected final RpcService delegate;
+
+    protected DelegatingRpcService(RpcService delegate) {
+        this.delegate = delegate;
+    }
+
+    public RpcService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        return delegate.send(request, responseType);
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return delegate.sendAsync(request, responseType);
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        return delegate.sendBatch(requests);
+    }
+
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        return delegate.sendBatchAsync(requests);
+    }
+
+    @Override
+    public <T extends Response> T stream(Request request, Class<T> responseType, Consumer<Object> consumer) throws IOException {
+        return delegate.stream(request, responseType, consumer);
+    }
+
+    @Override
+    public <T extends Notification<?>> Flowable<T> subscribe(Request request) {
+        return delegate.subscribe(request);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
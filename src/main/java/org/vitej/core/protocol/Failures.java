@@ -0,0 +1,35 @@
+package org.vitej.core.protocol;
+
+import org.vitej.core.exception.ConnectionException;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+final class Failures {
+    private Failures() {
+    }
+
+    /**
+     * Return the failure behind the wrappers added by CompletableFuture
+     */
+    static Throwable unwrap(Throwable failure) {
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException) && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * Return whether the failure is caused by the connection or the node rather than the request,
+     * i.e. an IOException or a ConnectionException without status, with 429 or with 5xx
+     */
+    static boolean isTransient(Throwable failure) {
+        failure = unwrap(failure);
+        if (failure instanceof ConnectionException) {
+            int code = ((ConnectionException) failure).getCode();
+            return code < 0 || code == 429 || code >= 500;
+        }
+        return failure instanceof IOException;
+    }
+}
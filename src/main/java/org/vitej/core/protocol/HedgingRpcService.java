@@ -0,0 +1,320 @@
+package org.vitej.core.protocol;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.reactivex.Flowable;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.websocket.events.Notification;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * RpcService that hedges read-only requests. When the primary backend has not answered within
+ * the hedge delay, a duplicate is sent to the next backend, the first successful reply wins and
+ * the other call is cancelled. The delay is the configured percentile of recently observed
+ * latencies, bounded by a minimum and maximum delay. A primary that loses to its hedge is sampled
+ * with the time it had taken so far, so slow primaries still raise the delay.
+ * Hedges are limited by a budget: every hedgeable request earns budgetRatio tokens and every
+ * hedge spends one, so a slow node does not see its load doubled.
+ * Only methods matching the hedgeable predicate are hedged, which by default excludes every
+ * write such as ledger_sendRawTransaction.
+ */
+public class HedgingRpcService implements RpcService {
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 10;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+    public static final double DEFAULT_MAX_BUDGET = 10;
+
+    private final List<RpcService> backends;
+    private final Predicate<String> hedgeable;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final LatencyWindow latencies = new LatencyWindow(1024);
+    private final AtomicInteger nextPrimary = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("vitej-hedging-%d").setDaemon(true).build());
+
+    private final Object budgetLock = new Object();
+    private double budgetRatio = DEFAULT_BUDGET_RATIO;
+    private double maxBudget = DEFAULT_MAX_BUDGET;
+    private double budget = DEFAULT_MAX_BUDGET;
+
+    public HedgingRpcService(RpcService... backends) {
+        this(Arrays.asList(backends), RpcMethodClassifier::isReadOnly, DEFAULT_PERCENTILE,
+                DEFAULT_MIN_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param backends   At least two backends, the primary rotates over them and the hedge goes to the next one
+     * @param hedgeable  Whether requests of a method may be hedged
+     * @param percentile Latency percentile used as hedge delay, e.g. 0.95
+     * @param minDelay   Lower bound of the hedge delay, also used until enough latencies are observed
+     * @param maxDelay   Upper bound of the hedge delay
+     * @param unit       Time unit of minDelay and maxDelay
+     */
+    public HedgingRpcService(List<? extends RpcService> backends, Predicate<String> hedgeable, double percentile,
+                             long minDelay, long maxDelay, TimeUnit unit) {
+        Preconditions.checkArgument(backends.size() >= 2, "at least two backends are required");
+        Preconditions.checkArgument(percentile > 0 && percentile <= 1, "percentile must be in (0, 1]");
+        Preconditions.checkArgument(minDelay >= 0 && minDelay <= maxDelay, "invalid hedge delay bounds");
+        this.backends = new ArrayList<>(backends);
+        this.hedgeable = hedgeable;
+        this.percentile = percentile;
+        this.minDelayNanos = unit.toNanos(minDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        if (!hedgeable.test(request.getMethod())) {
+            return primary().send(request, responseType);
+        }
+        try {
+            return sendAsync(request, responseType).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted hedged request", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Unexpected exception", e.getCause());
+        }
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        int index = Math.floorMod(nextPrimary.getAndIncrement(), backends.size());
+        RpcService primary = backends.get(index);
+        if (!hedgeable.test(request.getMethod())) {
+            return primary.sendAsync(request, responseType);
+        }
+        RpcService secondary = backends.get((index + 1) % backends.size());
+        earnBudget();
+        return new HedgedCall<T>(request, responseType).start(primary, secondary);
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        return primary().sendBatch(requests);
+    }
+
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        return primary().sendBatchAsync(requests);
+    }
+
+    @Override
+    public <T extends Response> T stream(Request request, Class<T> responseType, Consumer<Object> consumer) throws IOException {
+        return primary().stream(request, responseType, consumer);
+    }
+
+    @Override
+    public <T extends Notification<?>> Flowable<T> subscribe(Request request) {
+        return backends.get(0).subscribe(request);
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        for (RpcService backend : backends) {
+            backend.close();
+        }
+    }
+
+    /**
+     * @param budgetRatio Hedge tokens earned per hedgeable request, e.g. 0.1 for at most one hedge
+     *                    per ten requests in the long run
+     * @param maxBudget   Maximum number of hedge tokens saved up
+     */
+    public void setHedgeBudget(double budgetRatio, double maxBudget) {
+        Preconditions.checkArgument(budgetRatio >= 0 && maxBudget >= 0, "hedge budget must not be negative");
+        synchronized (budgetLock) {
+            this.budgetRatio = budgetRatio;
+            this.maxBudget = maxBudget;
+            this.budget = Math.min(budget, maxBudget);
+        }
+    }
+
+    /**
+     * @return Current hedge delay in nanoseconds
+     */
+    public long getHedgeDelayNanos() {
+        long delay = latencies.percentile(percentile);
+        return Math.max(minDelayNanos, Math.min(maxDelayNanos, delay));
+    }
+
+    private void earnBudget() {
+        synchronized (budgetLock) {
+            budget = Math.min(maxBudget, budget + budgetRatio);
+        }
+    }
+
+    private boolean spendBudget() {
+        synchronized (budgetLock) {
+            if (budget < 1) {
+                return false;
+            }
+            budget -= 1;
+            return true;
+        }
+    }
+
+    private RpcService primary() {
+        return backends.get(Math.floorMod(nextPrimary.getAndIncrement(), backends.size()));
+    }
+
+    private class HedgedCall<T extends Response> {
+        private final Request request;
+        private final Class<T> responseType;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<CompletableFuture<T>> attempts = new ArrayList<>(2);
+        private final long start = System.nanoTime();
+        private ScheduledFuture<?> hedgeTask;
+        private RpcService secondary;
+        private int failed;
+        private boolean hedged;
+        private boolean primaryPending = true;
+
+        HedgedCall(Request request, Class<T> responseType) {
+            this.request = request;
+            this.responseType = responseType;
+        }
+
+        CompletableFuture<T> start(RpcService primary, RpcService secondary) {
+            this.secondary = secondary;
+            synchronized (this) {
+                hedgeTask = scheduler.schedule(() -> hedge(false), getHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+            }
+            attempt(primary, true);
+            result.whenComplete((r, t) -> {
+                boolean primaryLost;
+                synchronized (this) {
+                    primaryLost = primaryPending;
+                    primaryPending = false;
+                    hedgeTask.cancel(false);
+                    for (CompletableFuture<T> attempt : attempts) {
+                        attempt.cancel(true);
+                    }
+                }
+                if (primaryLost) {
+                    // censored sample, the primary would have taken at least this long
+                    latencies.record(System.nanoTime() - start);
+                }
+            });
+            return result;
+        }
+
+        /**
+         * @param failover The primary failed, which is not an extra request so it needs no budget
+         */
+        private void hedge(boolean failover) {
+            synchronized (this) {
+                if (result.isDone() || hedged || (!failover && !spendBudget())) {
+                    return;
+                }
+                hedged = true;
+            }
+            attempt(secondary, false);
+        }
+
+        private void attempt(RpcService backend, boolean primary) {
+            CompletableFuture<T> attempt;
+            try {
+                attempt = backend.sendAsync(request, responseType);
+            } catch (RuntimeException e) {
+                // may run on a callback or the scheduler, where a throw would leave the result pending
+                attempt = new CompletableFuture<>();
+                attempt.completeExceptionally(e);
+            }
+            synchronized (this) {
+                attempts.add(attempt);
+            }
+            attempt.whenComplete((response, t) -> {
+                boolean recordLatency = false;
+                if (primary) {
+                    synchronized (this) {
+                        recordLatency = primaryPending && t == null;
+                        primaryPending = false;
+                    }
+                }
+                if (t == null) {
+                    if (recordLatency) {
+                        latencies.record(System.nanoTime() - start);
+                    }
+                    result.complete(response);
+                    return;
+                }
+                boolean hedgeNow;
+                boolean giveUp;
+                synchronized (this) {
+                    failed++;
+                    hedgeNow = !hedged;
+                    giveUp = failed >= 2;
+                }
+                if (hedgeNow) {
+                    // primary failed before the hedge delay, fail over right away
+                    hedge(true);
+                } else if (giveUp) {
+                    result.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                }
+            });
+        }
+    }
+
+    private static class LatencyWindow {
+        private final long[] samples;
+        private int count;
+        private int next;
+        private int sinceComputed;
+        private volatile long cached;
+
+        LatencyWindow(int size) {
+            samples = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            sinceComputed++;
+        }
+
+        long percentile(double percentile) {
+            long[] sorted;
+            synchronized (this) {
+                if (count < 16) {
+                    return 0;
+                }
+                // sorting the window is only repeated after a batch of new samples
+                if (sinceComputed < 64 && cached > 0) {
+                    return cached;
+                }
+                sinceComputed = 0;
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+            cached = sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+            return cached;
+        }
+    }
+}
@@ -1,12 +1,25 @@
 package org.vitej.core.protocol;
 
+import com.google.common.base.Preconditions;
 import okhttp3.*;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
 import org.vitej.core.exception.ConnectionException;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.metrics.RpcCall;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class HttpService extends Service {
     public static final String DEFAULT_URL = "http://127.0.0.1:48132";
@@ -14,6 +27,9 @@ public class HttpService extends Service {
     private final String url;
     private OkHttpClient httpClient;
     private HashMap<String, String> headers = new HashMap<>();
+    private boolean ownsClient = false;
+    private boolean sharedExecutor = false;
+    private int gzipMinBytes = -1;
 
 
     public HttpService() {
@@ -24,6 +40,11 @@ public class HttpService extends Service {
         this(url, ProtocolHelper.getClient());
     }
 
+    /**
+     * @param httpClient Client to send with. Async requests run on its dispatcher, so its limits
+     *                   of requests at once apply, OkHttp's default allows 5 per host.
+     *                   {@link ProtocolHelper#getClient()} and {@link Builder} raise them.
+     */
     public HttpService(String url, OkHttpClient httpClient) {
         super();
         this.url = url;
@@ -32,6 +53,12 @@ public class HttpService extends Service {
 
     @Override
     public void close() throws IOException {
+        if (ownsClient) {
+            if (!sharedExecutor) {
+                httpClient.dispatcher().executorService().shutdown();
+            }
+            httpClient.connectionPool().evictAll();
+        }
     }
 
     public static final MediaType JSON_MEDIA_TYPE =
@@ -39,14 +66,128 @@ public class HttpService extends Service {
 
     @Override
     protected InputStream performIO(String request) throws IOException {
+        okhttp3.Response response = httpClient.newCall(buildHttpRequest(RequestBody.create(JSON_MEDIA_TYPE, request))).execute();
+        return readBody(response);
+    }
+
+    @Override
+    protected InputStream performRequestIO(Object payload, RpcCall call) throws IOException {
+        okhttp3.Response response = newCall(payload, call).execute();
+        return readBody(response);
+    }
+
+    /**
+     * Send the request on OkHttp's dispatcher, no thread is parked while the request is in flight.
+     * Requests beyond the dispatcher's limits wait in its queue. Cancelling the returned future
+     * cancels the underlying call.
+     */
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return enqueue(request, result -> result != null ? objectMapper.readValue(result, responseType) : null);
+    }
+
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        if (requests.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        Map<Long, Integer> indexForId = indexForId(requests);
+        return enqueue(requests, result -> {
+            if (result == null) {
+                throw new IOException("Empty reply for batch request");
+            }
+            return readBatchReply(result, requests, indexForId);
+        });
+    }
+
+    private <R> CompletableFuture<R> enqueue(Object payload, ReplyReader<R> replyReader) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        RpcCall rpcCall = startCall(payload);
+        future.whenComplete((r, t) -> {
+            if (t == null) {
+                rpcCall.end(r);
+            } else {
+                rpcCall.fail(t);
+            }
+        });
+        Call call;
+        try {
+            call = newCall(payload, rpcCall);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
 
-        RequestBody requestBody = RequestBody.create(JSON_MEDIA_TYPE, request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, okhttp3.Response response) {
+                try (InputStream result = rpcCall.countResponse(readBody(response))) {
+                    future.complete(replyReader.read(result));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    response.close();
+                }
+            }
+        });
+        future.whenComplete((r, t) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Create the call, with a call timeout covering the time left until the request deadline
+     */
+    private Call newCall(Object payload, RpcCall rpcCall) throws IOException {
+        long remaining = remainingNanos(payload);
+        if (remaining <= 0) {
+            throw deadlineExceeded(payload);
+        }
+        Call call = httpClient.newCall(buildHttpRequest(payload, rpcCall));
+        if (remaining != Long.MAX_VALUE) {
+            call.timeout().timeout(remaining, TimeUnit.NANOSECONDS);
+        }
+        return call;
+    }
+
+    private okhttp3.Request buildHttpRequest(Object payload, RpcCall rpcCall) throws IOException {
+        if (gzipMinBytes < 0) {
+            return buildHttpRequest(new JsonRequestBody(payload, rpcCall));
+        }
+
+        // the size is only known after serializing, so buffer the UTF-8 bytes once
+        Buffer buffer = new Buffer();
+        JsonRequestBody.WRITER.writeValue(buffer.outputStream(), payload);
+        if (buffer.size() < gzipMinBytes) {
+            rpcCall.addRequestBytes(buffer.size());
+            return buildHttpRequest(RequestBody.create(buffer.readByteString(), JSON_MEDIA_TYPE));
+        }
+        Buffer compressed = new Buffer();
+        try (BufferedSink gzipSink = Okio.buffer(new GzipSink(compressed))) {
+            gzipSink.writeAll(buffer);
+        }
+        rpcCall.addRequestBytes(compressed.size());
+        return buildHttpRequest(RequestBody.create(compressed.readByteString(), JSON_MEDIA_TYPE))
+                .newBuilder()
+                .header("Content-Encoding", "gzip")
+                .build();
+    }
+
+    private okhttp3.Request buildHttpRequest(RequestBody requestBody) {
         Headers headers = buildHeaders();
 
-        okhttp3.Request httpRequest =
-                new okhttp3.Request.Builder().url(url).headers(headers).post(requestBody).build();
+        return new okhttp3.Request.Builder().url(url).headers(headers).post(requestBody).build();
+    }
 
-        okhttp3.Response response = httpClient.newCall(httpRequest).execute();
+    private InputStream readBody(okhttp3.Response response) throws IOException {
         ResponseBody responseBody = response.body();
         if (response.isSuccessful()) {
             if (responseBody != null) {
@@ -58,7 +199,7 @@ public class HttpService extends Service {
             int code = response.code();
             String text = responseBody == null ? "N/A" : responseBody.string();
 
-            throw new ConnectionException("connection failed: " + code + " " + text);
+            throw new ConnectionException("connection failed: " + code + " " + text, code);
         }
     }
 
@@ -77,4 +218,141 @@ public class HttpService extends Service {
     public HashMap<String, String> getHeaders() {
         return headers;
     }
+
+    /**
+     * Compress request bodies of at least minBytes with gzip, e.g. sendRawTransaction with large
+     * contract data or big batches. The node, or the proxy in front of it, must accept
+     * gzip-encoded request bodies.
+     *
+     * @param minBytes Minimum serialized size to compress, -1 to disable compression
+     */
+    public void setGzipMinBytes(int minBytes) {
+        this.gzipMinBytes = minBytes;
+    }
+
+    public int getGzipMinBytes() {
+        return gzipMinBytes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds an HttpService with its own connection pool and dispatcher. OkHttp's defaults keep
+     * 5 idle connections for 5 minutes. The dispatcher allows {@link ProtocolHelper#MAX_REQUESTS}
+     * requests at once like the shared client, instead of OkHttp's 5 per host.
+     */
+    public static class Builder {
+        private String url = DEFAULT_URL;
+        private OkHttpClient httpClient = ProtocolHelper.getClient();
+        private int maxIdleConnections = 5;
+        private long keepAliveMillis = TimeUnit.MINUTES.toMillis(5);
+        private int maxRequests = ProtocolHelper.MAX_REQUESTS;
+        private int maxRequestsPerHost = ProtocolHelper.MAX_REQUESTS;
+        private boolean http2PriorKnowledge = false;
+        private int gzipMinBytes = -1;
+        private ExecutorService executorService;
+        private final Map<String, String> headers = new HashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder url(String url) {
+            this.url = url;
+            return this;
+        }
+
+        /**
+         * @param httpClient Client whose other settings (timeouts, interceptors, etc.) are kept
+         */
+        public Builder httpClient(OkHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        public Builder maxIdleConnections(int maxIdleConnections) {
+            Preconditions.checkArgument(maxIdleConnections >= 0, "maxIdleConnections must not be negative");
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        public Builder keepAliveDuration(long keepAlive, TimeUnit unit) {
+            Preconditions.checkArgument(keepAlive > 0, "keepAlive must be positive");
+            this.keepAliveMillis = unit.toMillis(keepAlive);
+            return this;
+        }
+
+        public Builder maxRequests(int maxRequests) {
+            Preconditions.checkArgument(maxRequests > 0, "maxRequests must be positive");
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * @param maxRequestsPerHost Requests in flight to one host, at most maxRequests
+         */
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            Preconditions.checkArgument(maxRequestsPerHost > 0, "maxRequestsPerHost must be positive");
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Speak cleartext HTTP/2 (h2c) without upgrade negotiation, so that all requests are
+         * multiplexed on one connection. The node or the proxy in front of it must support h2c.
+         */
+        public Builder http2PriorKnowledge(boolean http2PriorKnowledge) {
+            this.http2PriorKnowledge = http2PriorKnowledge;
+            return this;
+        }
+
+        /**
+         * Executor of OkHttp's dispatcher, async calls run and their replies are parsed on it, e.g.
+         * {@link Async#newVirtualThreadPerTaskExecutor()} on JDK 21+. {@link Service#setExecutor}
+         * has no effect on HttpService, its async calls do not block a thread of their own.
+         */
+        public Builder executorService(ExecutorService executorService) {
+            this.executorService = executorService;
+            return this;
+        }
+
+        /**
+         * @see HttpService#setGzipMinBytes(int)
+         */
+        public Builder gzipRequests(int minBytes) {
+            this.gzipMinBytes = minBytes;
+            return this;
+        }
+
+        public Builder header(String key, String value) {
+            headers.put(key, value);
+            return this;
+        }
+
+        public HttpService build() {
+            Dispatcher dispatcher = executorService != null ? new Dispatcher(executorService) : new Dispatcher();
+            dispatcher.setMaxRequests(maxRequests);
+            // a host can not have more requests in flight than all hosts together
+            dispatcher.setMaxRequestsPerHost(Math.min(maxRequests, maxRequestsPerHost));
+
+            OkHttpClient.Builder clientBuilder = httpClient.newBuilder()
+                    .dispatcher(dispatcher)
+                    .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS));
+            if (http2PriorKnowledge) {
+                clientBuilder.protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+            }
+
+            HttpService httpService = new HttpService(url, clientBuilder.build());
+            httpService.addHeaders(headers);
+            httpService.ownsClient = true;
+            httpService.gzipMinBytes = gzipMinBytes;
+            httpService.sharedExecutor = executorService != null;
+            return httpService;
+        }
+    }
+
+    private interface ReplyReader<R> {
+        R read(InputStream result) throws IOException;
+    }
 }
@@ -0,0 +1,57 @@
+package org.vitej.core.protocol;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.io.CountingOutputStream;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.vitej.core.protocol.metrics.RpcCall;
+
+import java.io.IOException;
+
+/**
+ * Request body that serializes the payload straight into the OkHttp sink as UTF-8, without an
+ * intermediate String. The payload is serialized again if OkHttp retries the request, its bytes
+ * are only counted the first time.
+ * Jackson must not flush the sink itself: the body would leave in a packet apart from the final
+ * chunk, which Nagle's algorithm then holds back until the server's delayed ACK.
+ */
+class JsonRequestBody extends RequestBody {
+    static final ObjectWriter WRITER = ProtocolHelper.getObjectMapper().writer()
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final Object payload;
+    private final RpcCall call;
+    private boolean counted;
+
+    JsonRequestBody(Object payload, RpcCall call) {
+        this.payload = payload;
+        this.call = call;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return HttpService.JSON_MEDIA_TYPE;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        if (!call.isEnabled() || counted) {
+            WRITER.writeValue(sink.outputStream(), payload);
+            return;
+        }
+        CountingOutputStream out = new CountingOutputStream(sink.outputStream());
+        WRITER.writeValue(out, payload);
+        call.addRequestBytes(out.getCount());
+        counted = true;
+    }
+}
@@ -0,0 +1,393 @@
+package org.vitej.core.protocol;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.reactivex.Flowable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vitej.core.exception.CircuitOpenException;
+import org.vitej.core.exception.ConnectionException;
+import org.vitej.core.exception.RequestRejectedException;
+import org.vitej.core.protocol.methods.enums.ENetState;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.NetSyncInfoResponse;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.websocket.events.Notification;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * RpcService that spreads requests over several nodes. Each request goes to the healthy backend
+ * with the lowest score, and fails over to the next backend when the connection fails.
+ * Backends are probed with net_syncInfo periodically, a backend is healthy when it answers and
+ * has finished syncing. A backend is also taken out after failureThreshold connection failures in
+ * a row, or at once when its {@link CircuitBreakerRpcService} is open. Other rejections, e.g. a
+ * full {@link ConcurrencyLimitedRpcService} queue, fail over without taking the backend out.
+ * Without probes a backend taken out gets a request again after the ejection duration, and is
+ * back in once one succeeds.
+ */
+public class LoadBalancedRpcService implements RpcService {
+    private static final Logger log = LoggerFactory.getLogger(LoadBalancedRpcService.class);
+
+    public static final long DEFAULT_PROBE_INTERVAL_SECONDS = 10;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_EJECTION_SECONDS = 30;
+    private static final double EWMA_ALPHA = 0.3;
+
+    public enum Strategy {
+        /**
+         * Pick the backend with the fewest requests in flight
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * Pick the backend with the lowest exponentially weighted moving average latency,
+         * weighted by its requests in flight
+         */
+        EWMA_LATENCY
+    }
+
+    private final List<Backend> backends;
+    private final Strategy strategy;
+    private final ScheduledExecutorService scheduler;
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long ejectionNanos = TimeUnit.SECONDS.toNanos(DEFAULT_EJECTION_SECONDS);
+
+    public LoadBalancedRpcService(List<? extends RpcService> services) {
+        this(services, Strategy.EWMA_LATENCY, DEFAULT_PROBE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param services      Backends, e.g. one HttpService or WebSocketService per node
+     * @param strategy      How a backend is picked for each request
+     * @param probeInterval Interval of net_syncInfo health probes, 0 to disable probing
+     * @param unit          Time unit of probeInterval
+     */
+    public LoadBalancedRpcService(List<? extends RpcService> services, Strategy strategy, long probeInterval, TimeUnit unit) {
+        Preconditions.checkArgument(!services.isEmpty(), "at least one backend is required");
+        List<Backend> backends = new ArrayList<>(services.size());
+        for (RpcService service : services) {
+            backends.add(new Backend(service));
+        }
+        this.backends = Collections.unmodifiableList(backends);
+        this.strategy = strategy;
+        if (probeInterval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("vitej-health-probe-%d").setDaemon(true).build());
+            scheduler.scheduleWithFixedDelay(this::probe, 0, probeInterval, unit);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        return call(service -> service.send(request, responseType));
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return callAsync(service -> service.sendAsync(request, responseType), new HashSet<>());
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        return call(service -> service.sendBatch(requests));
+    }
+
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        return callAsync(service -> service.sendBatchAsync(requests), new HashSet<>());
+    }
+
+    /**
+     * Elements may already have been handed to the consumer when a stream fails, so streams are
+     * not failed over.
+     */
+    @Override
+    public <T extends Response> T stream(Request request, Class<T> responseType, Consumer<Object> consumer) throws IOException {
+        Backend backend = pick(Collections.emptySet());
+        long start = backend.begin();
+        try {
+            T response = backend.service.stream(request, responseType, consumer);
+            backend.end(start, null);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            backend.end(start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Subscriptions are bound to one connection, they are opened on the first healthy backend
+     * that supports them.
+     */
+    @Override
+    public <T extends Notification<?>> Flowable<T> subscribe(Request request) {
+        UnsupportedOperationException unsupported = null;
+        for (Backend backend : backends) {
+            if (!backend.healthy) {
+                continue;
+            }
+            try {
+                return backend.service.subscribe(request);
+            } catch (UnsupportedOperationException e) {
+                unsupported = e;
+            }
+        }
+        throw unsupported != null ? unsupported : new ConnectionException("No healthy backend to subscribe with");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (Backend backend : backends) {
+            backend.service.close();
+        }
+    }
+
+    /**
+     * @param failureThreshold Connection failures in a row that mark a backend unhealthy until its
+     *                         next successful probe
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        Preconditions.checkArgument(failureThreshold > 0, "failureThreshold must be positive");
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * @param duration How long a backend taken out stays out before it gets a request again, only
+     *                 used when probing is disabled
+     * @param unit     Time unit of duration
+     */
+    public void setEjectionDuration(long duration, TimeUnit unit) {
+        Preconditions.checkArgument(duration >= 0, "duration must not be negative");
+        this.ejectionNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * @return Whether the backend at the given index passed its last health check
+     */
+    public boolean isHealthy(int index) {
+        return backends.get(index).healthy;
+    }
+
+    private <R> R call(BackendCall<R> call) throws IOException {
+        Set<Backend> tried = new HashSet<>();
+        while (true) {
+            Backend backend = pick(tried);
+            tried.add(backend);
+            long start = backend.begin();
+            try {
+                R result = call.call(backend.service);
+                backend.end(start, null);
+                return result;
+            } catch (IOException | RuntimeException e) {
+                backend.end(start, e);
+                if (!isFailover(e) || tried.size() >= backends.size()) {
+                    throw e;
+                }
+                log.warn("Request failed on backend, failing over", e);
+            }
+        }
+    }
+
+    private <R> CompletableFuture<R> callAsync(Function<RpcService, CompletableFuture<R>> call, Set<Backend> tried) {
+        Backend backend = pick(tried);
+        tried.add(backend);
+        long start = backend.begin();
+        CompletableFuture<R> result = new CompletableFuture<>();
+        CompletableFuture<R> future;
+        try {
+            future = call.apply(backend.service);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((r, t) -> {
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            backend.end(start, cause);
+            if (cause == null) {
+                result.complete(r);
+            } else if (isFailover(cause) && tried.size() < backends.size() && !result.isDone()) {
+                log.warn("Request failed on backend, failing over", cause);
+                callAsync(call, tried).whenComplete((retried, e) -> {
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        result.complete(retried);
+                    }
+                });
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return Whether the failure is the backend's rather than the request's, so another backend may succeed
+     */
+    private static boolean isFailover(Throwable failure) {
+        return Failures.isTransient(failure) || failure instanceof RequestRejectedException;
+    }
+
+    private Backend pick(Set<Backend> excluded) {
+        Backend best = null;
+        double bestScore = Double.MAX_VALUE;
+        double unsampledEwma = strategy == Strategy.EWMA_LATENCY ? medianEwma() : 0;
+        // unhealthy backends are only used when every healthy one has been tried
+        for (int pass = 0; pass < 2 && best == null; pass++) {
+            for (Backend backend : backends) {
+                if (excluded.contains(backend) || (pass == 0 && !backend.isAvailable())) {
+                    continue;
+                }
+                double score = score(backend, unsampledEwma);
+                if (score < bestScore) {
+                    best = backend;
+                    bestScore = score;
+                }
+            }
+        }
+        if (best == null) {
+            throw new ConnectionException("No backend available");
+        }
+        return best;
+    }
+
+    /**
+     * @param unsampledEwma Latency assumed for a backend without replies yet, so it does not look
+     *                      faster than all others and draw every request until its first reply
+     */
+    private double score(Backend backend, double unsampledEwma) {
+        int outstanding = backend.outstanding.get();
+        if (strategy == Strategy.LEAST_OUTSTANDING) {
+            return outstanding;
+        }
+        double ewma = backend.sampled ? backend.ewmaNanos : unsampledEwma;
+        return ewma * (outstanding + 1);
+    }
+
+    /**
+     * @return Median latency of the backends with replies, 1 when there are none so that the
+     * requests in flight decide
+     */
+    private double medianEwma() {
+        List<Double> samples = new ArrayList<>(backends.size());
+        for (Backend backend : backends) {
+            if (backend.sampled) {
+                samples.add(backend.ewmaNanos);
+            }
+        }
+        if (samples.isEmpty()) {
+            return 1;
+        }
+        Collections.sort(samples);
+        return samples.get(samples.size() / 2);
+    }
+
+    private void probe() {
+        for (Backend backend : backends) {
+            try {
+                new Request<>("net_syncInfo", Collections.emptyList(), backend.service, NetSyncInfoResponse.class)
+                        .sendAsync()
+                        .whenComplete((response, t) -> {
+                            boolean healthy = t == null && response != null && !response.hasError()
+                                    && response.getResult() != null
+                                    && Integer.valueOf(ENetState.DONE.getValue()).equals(response.getResult().getState());
+                            if (backend.healthy != healthy) {
+                                log.warn("Backend {} is now {}", backends.indexOf(backend), healthy ? "healthy" : "unhealthy");
+                            }
+                            if (healthy) {
+                                backend.consecutiveFailures.set(0);
+                            }
+                            backend.healthy = healthy;
+                        });
+            } catch (RuntimeException e) {
+                backend.healthy = false;
+            }
+        }
+    }
+
+    private interface BackendCall<R> {
+        R call(RpcService service) throws IOException;
+    }
+
+    private class Backend {
+        private final RpcService service;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile double ewmaNanos;
+        private volatile boolean sampled;
+        private volatile boolean healthy = true;
+        private volatile long ejectedAt;
+
+        Backend(RpcService service) {
+            this.service = service;
+        }
+
+        /**
+         * @return Whether the backend is healthy, or without probes has been out for the ejection duration
+         */
+        boolean isAvailable() {
+            return healthy || (scheduler == null && System.nanoTime() - ejectedAt >= ejectionNanos);
+        }
+
+        private void eject() {
+            ejectedAt = System.nanoTime();
+            healthy = false;
+        }
+
+        long begin() {
+            outstanding.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        void end(long start, Throwable failure) {
+            outstanding.decrementAndGet();
+            if (failure instanceof CircuitOpenException) {
+                eject();
+                return;
+            }
+            if (failure instanceof RequestRejectedException) {
+                // rejected without reaching the node, e.g. a momentary full queue, the backend is alive
+                return;
+            }
+            if (failure != null && Failures.isTransient(failure)) {
+                if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                    eject();
+                }
+                return;
+            }
+            if (failure != null) {
+                return;
+            }
+            consecutiveFailures.set(0);
+            if (scheduler == null) {
+                // without probes a successful call is the only way back in
+                healthy = true;
+            }
+            long latency = System.nanoTime() - start;
+            if (sampled) {
+                ewmaNanos += EWMA_ALPHA * (latency - ewmaNanos);
+            } else {
+                ewmaNanos = latency;
+                sampled = true;
+            }
+        }
+    }
+}
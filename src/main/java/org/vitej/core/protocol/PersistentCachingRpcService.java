@@ -0,0 +1,178 @@
+package org.vitej.core.protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.AccountBlock;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.methods.response.SnapshotBlock;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
+import org.vitej.core.protocol.store.MappedBlockStore;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RpcService decorator that keeps confirmed account blocks and snapshot blocks in a
+ * {@link MappedBlockStore} on disk, so that they survive restarts. Block queries by hash and by
+ * height are answered from the store when possible and only go to the network on a miss.
+ * <p>
+ * Account blocks are stored once snapshotted and, for send blocks, received. Snapshot blocks are
+ * stored once they are finalityDepth below the highest snapshot height seen in replies. Blocks in
+ * list replies of ledger_getAccountBlocks, ledger_getAccountBlocksByAddress and
+ * ledger_getSnapshotBlocks are stored as well. Account blocks answered from the store have
+ * confirmations null, see {@link MappedBlockStore}.
+ * <p>
+ * The store is closed together with this service.
+ */
+public class PersistentCachingRpcService extends DelegatingRpcService {
+    private static final Logger log = LoggerFactory.getLogger(PersistentCachingRpcService.class);
+
+    private final MappedBlockStore store;
+    private final long finalityDepth;
+    private final AtomicLong highestSnapshotHeight = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public PersistentCachingRpcService(RpcService delegate, MappedBlockStore store) {
+        this(delegate, store, CachingRpcService.DEFAULT_FINALITY_DEPTH);
+    }
+
+    /**
+     * @param delegate      Service the requests are sent with on a miss
+     * @param store         Store the blocks are kept in
+     * @param finalityDepth Snapshot blocks this far below the highest seen height are stored
+     */
+    public PersistentCachingRpcService(RpcService delegate, MappedBlockStore store, long finalityDepth) {
+        super(delegate);
+        this.store = store;
+        this.finalityDepth = finalityDepth;
+    }
+
+    public MappedBlockStore getStore() {
+        return store;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        T cached = lookup(request, responseType);
+        if (cached != null) {
+            return cached;
+        }
+        return persist(delegate.send(request, responseType));
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        T cached = lookup(request, responseType);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return delegate.sendAsync(request, responseType).thenApply(this::persist);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            delegate.close();
+        } finally {
+            store.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Response> T lookup(Request request, Class<T> responseType) {
+        List<?> params = request.getParams();
+        if (params == null || params.isEmpty() || params.get(0) == null) {
+            return null;
+        }
+        Object result;
+        try {
+            switch (request.getMethod()) {
+                case "ledger_getAccountBlockByHash":
+                    result = store.getAccountBlock(String.valueOf(params.get(0)));
+                    break;
+                case "ledger_getAccountBlockByHeight":
+                    if (params.size() < 2 || params.get(1) == null) {
+                        return null;
+                    }
+                    result = store.getAccountBlock(String.valueOf(params.get(0)), Long.parseLong(String.valueOf(params.get(1))));
+                    break;
+                case "ledger_getSnapshotBlockByHash":
+                    result = store.getSnapshotBlock(String.valueOf(params.get(0)));
+                    break;
+                case "ledger_getSnapshotBlockByHeight":
+                    result = store.getSnapshotBlock(Long.parseLong(String.valueOf(params.get(0))));
+                    break;
+                default:
+                    return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to read {} from block store", request.getMethod(), e);
+            return null;
+        }
+        if (result == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        try {
+            T response = responseType.getDeclaredConstructor().newInstance();
+            response.setId(request.getId());
+            response.setJsonrpc("2.0");
+            response.setResult(result);
+            return response;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private <T extends Response> T persist(T response) {
+        if (response == null || response.hasError() || response.getResult() == null) {
+            return response;
+        }
+        Object result = response.getResult();
+        if (response instanceof SnapshotChainHeightResponse) {
+            highestSnapshotHeight.accumulateAndGet(((SnapshotChainHeightResponse) response).getHeight(), Math::max);
+            return response;
+        }
+        try {
+            if (result instanceof List) {
+                for (Object item : (List<?>) result) {
+                    persistBlock(item);
+                }
+            } else {
+                persistBlock(result);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to write block store", e);
+        }
+        return response;
+    }
+
+    private void persistBlock(Object block) throws IOException {
+        if (block instanceof AccountBlock) {
+            if (CachingRpcService.isSettled((AccountBlock) block)) {
+                store.putAccountBlock((AccountBlock) block);
+            }
+        } else if (block instanceof SnapshotBlock) {
+            Long height = ((SnapshotBlock) block).getHeight();
+            if (height == null) {
+                return;
+            }
+            if (height <= highestSnapshotHeight.accumulateAndGet(height, Math::max) - finalityDepth) {
+                store.putSnapshotBlock((SnapshotBlock) block);
+            }
+        }
+    }
+}
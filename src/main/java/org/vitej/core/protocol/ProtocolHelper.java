@@ -1,13 +1,23 @@
 package org.vitej.core.protocol;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
 
 public class ProtocolHelper {
     private static final ObjectMapper DEFAULT_OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectMapper FIELD_MAPPER = new ObjectMapper()
+            .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
     static {
         DEFAULT_OBJECT_MAPPER.configure(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES, true);
@@ -22,9 +32,80 @@ public class ProtocolHelper {
         return DEFAULT_OBJECT_MAPPER.reader();
     }
 
-    private static final OkHttpClient client = new OkHttpClient.Builder().build();
+    /**
+     * Return a key identifying what a request asks for, i.e. its method and serialized params.
+     * Two requests with the same key get the same reply from the same chain state.
+     *
+     * @param request Request
+     * @return Method and params as one string
+     */
+    public static String requestKey(Request<?, ?> request) {
+        try {
+            return request.getMethod() + DEFAULT_OBJECT_MAPPER.writeValueAsString(request.getParams());
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to serialize params of " + request.getMethod(), e);
+        }
+    }
+
+    /**
+     * Return a deep copy of a response, copied field by field
+     *
+     * @param value Response to copy
+     * @return Copy of the same class
+     * @throws IllegalArgumentException The response can not be copied
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T copy(T value) {
+        try {
+            return (T) FIELD_MAPPER.treeToValue(FIELD_MAPPER.valueToTree(value), value.getClass());
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to copy " + value.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Return a copy of a shared reply for one caller, with the id of its request. The reply itself
+     * if it can not be copied.
+     *
+     * @param response Reply shared between callers
+     * @param request  Request of the caller
+     * @return Copy carrying the id of the request
+     */
+    static Response<?> copyFor(Response<?> response, Request<?, ?> request) {
+        if (response == null) {
+            return null;
+        }
+        try {
+            Response<?> copy = copy(response);
+            copy.setId(request.getId());
+            return copy;
+        } catch (IllegalArgumentException e) {
+            return response;
+        }
+    }
 
+    /**
+     * Requests the shared client runs at once, in total and per node. OkHttp allows only 5 per host
+     * by default, which would cap {@link HttpService#sendAsync} against one node.
+     */
+    public static final int MAX_REQUESTS = 256;
+
+    private static final OkHttpClient client = new OkHttpClient.Builder().dispatcher(newDispatcher()).build();
+
+    /**
+     * Return the client shared by services created without their own client. Its dispatcher runs up
+     * to {@link #MAX_REQUESTS} async requests at once, further requests wait in its queue.
+     *
+     * @return Shared client
+     */
     public static OkHttpClient getClient() {
         return client;
     }
+
+    private static Dispatcher newDispatcher() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS);
+        return dispatcher;
+    }
 }
@@ -0,0 +1,229 @@
+package org.vitej.core.protocol;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vitej.core.exception.ConnectionException;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * RpcService decorator that retries requests failing with a transient connection error, i.e. an
+ * IOException or a ConnectionException with a 429 or 5xx status. Only methods matching the
+ * retryable predicate are retried, by default {@link RpcMethodClassifier#isRetryable(String)}.
+ * Retries wait an exponential backoff with full jitter, and are limited by a retry budget: every
+ * request earns budgetRatio tokens and every retry spends one, so a failing node does not see its
+ * load multiplied by the retries.
+ */
+public class RetryingRpcService extends DelegatingRpcService {
+    private static final Logger log = LoggerFactory.getLogger(RetryingRpcService.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+    public static final double DEFAULT_MAX_BUDGET = 10;
+
+    private final Predicate<String> retryable;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double budgetRatio;
+    private final double maxBudget;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("vitej-retry-%d").setDaemon(true).build());
+
+    private final Object budgetLock = new Object();
+    private double budget;
+
+    public RetryingRpcService(RpcService delegate) {
+        this(delegate, RpcMethodClassifier::isRetryable, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS,
+                DEFAULT_MAX_DELAY_MILLIS, DEFAULT_BUDGET_RATIO, DEFAULT_MAX_BUDGET);
+    }
+
+    /**
+     * @param delegate        Service the requests are sent with
+     * @param retryable       Whether requests of a method may be retried
+     * @param maxAttempts     Maximum number of attempts including the first one
+     * @param baseDelayMillis Backoff before the first retry, doubled for every further retry
+     * @param maxDelayMillis  Upper bound of the backoff
+     * @param budgetRatio     Retry tokens earned per request
+     * @param maxBudget       Maximum number of retry tokens saved up
+     */
+    public RetryingRpcService(RpcService delegate, Predicate<String> retryable, int maxAttempts, long baseDelayMillis,
+                              long maxDelayMillis, double budgetRatio, double maxBudget) {
+        super(delegate);
+        Preconditions.checkArgument(maxAttempts >= 1, "maxAttempts must be at least 1");
+        Preconditions.checkArgument(0 <= baseDelayMillis && baseDelayMillis <= maxDelayMillis, "invalid backoff delays");
+        Preconditions.checkArgument(budgetRatio >= 0 && maxBudget >= 0, "retry budget must not be negative");
+        this.retryable = retryable;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.budgetRatio = budgetRatio;
+        this.maxBudget = maxBudget;
+        this.budget = maxBudget;
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        if (!retryable.test(request.getMethod())) {
+            return delegate.send(request, responseType);
+        }
+        return retry(() -> delegate.send(request, responseType), request::getRemainingNanos);
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        if (!retryable.test(request.getMethod())) {
+            return delegate.sendAsync(request, responseType);
+        }
+        return retryAsync(() -> delegate.sendAsync(request, responseType), request::getRemainingNanos);
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        if (!allRetryable(requests)) {
+            return delegate.sendBatch(requests);
+        }
+        return retry(() -> delegate.sendBatch(requests), () -> remainingNanos(requests));
+    }
+
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        if (!allRetryable(requests)) {
+            return delegate.sendBatchAsync(requests);
+        }
+        return retryAsync(() -> delegate.sendBatchAsync(requests), () -> remainingNanos(requests));
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        super.close();
+    }
+
+    private <R> R retry(Call<R> call, LongSupplier remainingNanos) throws IOException {
+        earnBudget();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (IOException | ConnectionException e) {
+                long delay = backoffMillis(attempt);
+                if (!shouldRetry(e, attempt, delay, remainingNanos)) {
+                    throw e;
+                }
+                log.warn("Request failed on attempt {}, retrying in {} ms", attempt, delay, e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting to retry", ie);
+                }
+            }
+        }
+    }
+
+    private <R> CompletableFuture<R> retryAsync(Supplier<CompletableFuture<R>> call, LongSupplier remainingNanos) {
+        earnBudget();
+        CompletableFuture<R> result = new CompletableFuture<>();
+        attemptAsync(call, remainingNanos, 1, result);
+        return result;
+    }
+
+    private <R> void attemptAsync(Supplier<CompletableFuture<R>> call, LongSupplier remainingNanos, int attempt,
+                                  CompletableFuture<R> result) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<R> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            // retries run on the scheduler, where a throw would leave the result pending
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        CompletableFuture<R> attempted = future;
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) {
+                attempted.cancel(true);
+            }
+        });
+        attempted.whenComplete((r, t) -> {
+            if (t == null) {
+                result.complete(r);
+                return;
+            }
+            Throwable cause = Failures.unwrap(t);
+            long delay = backoffMillis(attempt);
+            if (!shouldRetry(cause, attempt, delay, remainingNanos)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            log.warn("Request failed on attempt {}, retrying in {} ms", attempt, delay, cause);
+            scheduler.schedule(() -> attemptAsync(call, remainingNanos, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private boolean shouldRetry(Throwable failure, int attempt, long delayMillis, LongSupplier remainingNanos) {
+        if (attempt >= maxAttempts || !Failures.isTransient(failure)) {
+            return false;
+        }
+        if (TimeUnit.MILLISECONDS.toNanos(delayMillis) >= remainingNanos.getAsLong()) {
+            // the request would miss its deadline while backing off
+            return false;
+        }
+        synchronized (budgetLock) {
+            if (budget < 1) {
+                return false;
+            }
+            budget -= 1;
+            return true;
+        }
+    }
+
+    private long backoffMillis(int attempt) {
+        long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private void earnBudget() {
+        synchronized (budgetLock) {
+            budget = Math.min(maxBudget, budget + budgetRatio);
+        }
+    }
+
+    private static long remainingNanos(List<Request<?, ?>> requests) {
+        long remaining = Long.MAX_VALUE;
+        for (Request<?, ?> request : requests) {
+            remaining = Math.min(remaining, request.getRemainingNanos());
+        }
+        return remaining;
+    }
+
+    private boolean allRetryable(List<Request<?, ?>> requests) {
+        for (Request<?, ?> request : requests) {
+            if (!retryable.test(request.getMethod())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private interface Call<R> {
+        R call() throws IOException;
+    }
+}
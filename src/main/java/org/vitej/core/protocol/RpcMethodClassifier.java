@@ -0,0 +1,33 @@
+package org.vitej.core.protocol;
+
+/**
+ * Classifies Vite RPC methods by whether they can safely be sent more than once
+ */
+public final class RpcMethodClassifier {
+    private RpcMethodClassifier() {
+    }
+
+    /**
+     * Return whether the method only reads chain state, e.g. ledger_getAccountBlockByHash,
+     * contract_query or net_syncInfo. Sending such a request twice has no side effect.
+     *
+     * @param method RPC method name
+     * @return True for read-only methods
+     */
+    public static boolean isReadOnly(String method) {
+        return method != null
+                && (method.startsWith("ledger_get") || method.startsWith("contract_") || method.startsWith("net_"));
+    }
+
+    /**
+     * Return whether a failed request of the method may be sent again. Besides read-only methods
+     * this includes ledger_sendRawTransaction: the block hash is part of the request, so sending
+     * the same request twice can not create two transactions.
+     *
+     * @param method RPC method name
+     * @return True for methods that are safe to retry
+     */
+    public static boolean isRetryable(String method) {
+        return isReadOnly(method) || "ledger_sendRawTransaction".equals(method);
+    }
+}
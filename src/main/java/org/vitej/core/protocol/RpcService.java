@@ -6,13 +6,76 @@ import org.vitej.core.protocol.methods.response.Response;
 import org.vitej.core.protocol.websocket.events.Notification;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface RpcService {
     <T extends Response> T send(Request request, Class<T> responseType) throws IOException;
 
     <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType);
 
+    /**
+     * Send requests as one JSON-RPC 2.0 batch. The default implementation sends them one by one.
+     *
+     * @param requests Requests to send, response type of each request is taken from the request itself
+     * @return Responses in the same order as requests
+     * @throws IOException Connection failed or a reply is missing
+     */
+    default List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        List<Response<?>> responses = new ArrayList<>(requests.size());
+        for (Request<?, ?> request : requests) {
+            responses.add(send(request, request.getResponseType()));
+        }
+        return responses;
+    }
+
+    /**
+     * Asynchronous version of {@link #sendBatch(List)}. The default implementation sends the
+     * requests one by one with {@link #sendAsync(Request, Class)}.
+     *
+     * @param requests Requests to send
+     * @return Responses in the same order as requests
+     */
+    default CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        List<CompletableFuture<? extends Response>> futures = new ArrayList<>(requests.size());
+        for (Request<?, ?> request : requests) {
+            futures.add(sendAsync(request, request.getResponseType()));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    List<Response<?>> responses = new ArrayList<>(futures.size());
+                    for (CompletableFuture<? extends Response> future : futures) {
+                        responses.add((Response<?>) future.join());
+                    }
+                    return responses;
+                });
+    }
+
+    /**
+     * Send a request whose result is a list and hand over the list elements one at a time
+     * instead of building the whole list in memory. The default implementation decodes the
+     * whole reply and hands over the elements afterwards.
+     *
+     * @param request      Request to send
+     * @param responseType Response type, its result must be a list
+     * @param consumer     Receives the elements of the result in order
+     * @param <T>          Response type
+     * @return Response with id and error filled in, result is always null
+     * @throws IOException Connection failed or the reply is malformed
+     */
+    @SuppressWarnings("unchecked")
+    default <T extends Response> T stream(Request request, Class<T> responseType, Consumer<Object> consumer) throws IOException {
+        T response = send(request, responseType);
+        if (response != null && response.getResult() instanceof Collection) {
+            ((Collection<Object>) response.getResult()).forEach(consumer);
+            response.setResult(null);
+        }
+        return response;
+    }
+
     <T extends Notification<?>> Flowable<T> subscribe(Request request);
 
     void close() throws IOException;
@@ -1,41 +1,217 @@
 package org.vitej.core.protocol;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Utf8;
+import com.google.common.util.concurrent.Uninterruptibles;
 import io.reactivex.Flowable;
 import org.vitej.core.protocol.methods.request.Request;
 import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.metrics.RpcCall;
+import org.vitej.core.protocol.metrics.RpcMetricsListener;
 import org.vitej.core.protocol.websocket.events.Notification;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public abstract class Service implements RpcService {
     protected final ObjectMapper objectMapper;
+    private Executor executor = Async.defaultExecutor();
+    private volatile RpcMetricsListener metricsListener;
 
     public Service() {
         objectMapper = ProtocolHelper.getObjectMapper();
     }
 
+    /**
+     * Set the executor blocking calls run on for the asynchronous API, e.g.
+     * {@link Async#newVirtualThreadPerTaskExecutor()} on JDK 21+. Transports with non-blocking
+     * async calls do not use it, for {@link HttpService} see {@link HttpService.Builder#executorService}.
+     *
+     * @param executor Executor, the shared cached thread pool by default
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param metricsListener Listener to report every request to, null to stop reporting
+     */
+    public void setMetricsListener(RpcMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    public RpcMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
     protected abstract InputStream performIO(String payload) throws IOException;
 
+    /**
+     * Send a request object, or a list of them for batches. Serializes to a string by default,
+     * transports that can write JSON straight to the wire override this. When a request has a
+     * deadline, performIO runs on the shared cached pool, so it can not starve a bounded executor
+     * the caller runs on, and is interrupted if no reply has arrived by then. A reply that still
+     * arrives after the deadline is closed. Transports that override this enforce the deadline
+     * themselves.
+     *
+     * @param payload Request or list of requests
+     * @param call    Measurement of the request, the bytes sent are added to it
+     * @return Reply body
+     * @throws IOException Connection failed, or the deadline passed before the reply arrived
+     */
+    protected InputStream performRequestIO(Object payload, RpcCall call) throws IOException {
+        long remaining = remainingNanos(payload);
+        if (remaining <= 0) {
+            throw deadlineExceeded(payload);
+        }
+        String json = objectMapper.writeValueAsString(payload);
+        if (call.isEnabled()) {
+            call.addRequestBytes(Utf8.encodedLength(json));
+        }
+        if (remaining == Long.MAX_VALUE) {
+            return performIO(json);
+        }
+        // set by whichever comes first, the reply handed to the caller or the caller giving up
+        AtomicBoolean settled = new AtomicBoolean();
+        FutureTask<InputStream> io = new FutureTask<>(() -> {
+            InputStream reply = performIO(json);
+            if (!settled.compareAndSet(false, true)) {
+                closeQuietly(reply);
+            }
+            return reply;
+        });
+        Async.defaultExecutor().execute(io);
+        try {
+            return io.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            abandon(io, settled);
+            throw deadlineExceeded(payload);
+        } catch (InterruptedException e) {
+            abandon(io, settled);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the reply");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Unexpected exception", e.getCause());
+        }
+    }
+
+    /**
+     * Interrupt the IO of a caller that gave up, or close its reply if it has just arrived
+     */
+    private static void abandon(FutureTask<InputStream> io, AtomicBoolean settled) {
+        if (settled.compareAndSet(false, true)) {
+            io.cancel(true);
+            return;
+        }
+        try {
+            closeQuietly(Uninterruptibles.getUninterruptibly(io));
+        } catch (ExecutionException | CancellationException e) {
+            // no reply to close
+        }
+    }
+
+    private static void closeQuietly(InputStream reply) {
+        if (reply == null) {
+            return;
+        }
+        try {
+            reply.close();
+        } catch (IOException e) {
+            // nothing more to do with a reply nobody reads
+        }
+    }
+
     @Override
     public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
-        String payload = objectMapper.writeValueAsString(request);
-
-        try (InputStream result = performIO(payload)) {
-            if (result != null) {
-                return objectMapper.readValue(result, responseType);
-            } else {
-                return null;
-            }
+        RpcCall call = startCall(request);
+        try (InputStream result = call.countResponse(performRequestIO(request, call))) {
+            T response = result != null ? objectMapper.readValue(result, responseType) : null;
+            call.end(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            call.fail(e);
+            throw e;
         }
     }
 
     @Override
     public <T extends Response> CompletableFuture<T> sendAsync(
             Request jsonRpc20Request, Class<T> responseType) {
-        return Async.run(() -> send(jsonRpc20Request, responseType));
+        return withDeadline(Async.run(() -> send(jsonRpc20Request, responseType), executor), jsonRpc20Request);
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        if (requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Integer> indexForId = indexForId(requests);
+        RpcCall call = startCall(requests);
+        try (InputStream result = call.countResponse(performRequestIO(requests, call))) {
+            if (result == null) {
+                throw new IOException("Empty reply for batch request");
+            }
+            List<Response<?>> responses = readBatchReply(result, requests, indexForId);
+            call.end(responses);
+            return responses;
+        } catch (IOException | RuntimeException e) {
+            call.fail(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        indexForId(requests);
+        return withDeadline(Async.run(() -> sendBatch(requests), executor), requests);
+    }
+
+    @Override
+    public <T extends Response> T stream(Request request, Class<T> responseType, Consumer<Object> consumer) throws IOException {
+        RpcCall call = startCall(request);
+        try (InputStream result = call.countResponse(performRequestIO(request, call))) {
+            T response = null;
+            if (result != null) {
+                try (JsonParser parser = objectMapper.getFactory().createParser(result)) {
+                    response = StreamingResponseReader.read(parser, responseType, consumer);
+                }
+            }
+            call.end(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            call.fail(e);
+            throw e;
+        }
     }
 
     @Override
@@ -46,4 +222,110 @@ public abstract class Service implements RpcService {
                         "Service %s does not support subscriptions",
                         this.getClass().getSimpleName()));
     }
+
+    protected RpcCall startCall(Object payload) {
+        return RpcCall.start(metricsListener, payload);
+    }
+
+    /**
+     * Return the time left until the earliest deadline of a request or a batch
+     *
+     * @param payload Request or list of requests
+     * @return Remaining nanoseconds, Long.MAX_VALUE when no request has a deadline
+     */
+    protected static long remainingNanos(Object payload) {
+        if (payload instanceof Request) {
+            return ((Request<?, ?>) payload).getRemainingNanos();
+        }
+        long remaining = Long.MAX_VALUE;
+        if (payload instanceof List) {
+            for (Object request : (List<?>) payload) {
+                if (request instanceof Request) {
+                    remaining = Math.min(remaining, ((Request<?, ?>) request).getRemainingNanos());
+                }
+            }
+        }
+        return remaining;
+    }
+
+    protected static InterruptedIOException deadlineExceeded(Object payload) {
+        return new InterruptedIOException(payload instanceof Request
+                ? String.format("Request %d exceeded its deadline", ((Request<?, ?>) payload).getId())
+                : "Batch request exceeded its deadline");
+    }
+
+    /**
+     * Fail the future when the deadline passes, also while the call is still queued on the
+     * executor. The blocking call itself is interrupted by performRequestIO, transports that can
+     * cancel their calls override sendAsync instead.
+     */
+    private <R> CompletableFuture<R> withDeadline(CompletableFuture<R> future, Object payload) {
+        long remaining = remainingNanos(payload);
+        if (remaining == Long.MAX_VALUE) {
+            return future;
+        }
+        ScheduledFuture<?> timeout = Async.scheduler().schedule(
+                () -> future.completeExceptionally(deadlineExceeded(payload)),
+                Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        future.whenComplete((r, t) -> timeout.cancel(false));
+        return future;
+    }
+
+    /**
+     * Map the ids of a batch to the positions of their requests, checked before the batch is sent
+     *
+     * @param requests Requests of the batch
+     * @return Position of the request for each id
+     * @throws IllegalArgumentException Two requests share an id, their replies could not be told apart
+     */
+    protected static Map<Long, Integer> indexForId(List<Request<?, ?>> requests) {
+        Map<Long, Integer> indexForId = new HashMap<>(requests.size() * 2);
+        for (int i = 0; i < requests.size(); i++) {
+            if (indexForId.put(requests.get(i).getId(), i) != null) {
+                throw new IllegalArgumentException("Duplicate request id in batch: " + requests.get(i).getId());
+            }
+        }
+        return indexForId;
+    }
+
+    /**
+     * Match the replies of a batch request back to the requests by id. The server is free to
+     * reply in any order, so the position of a reply in the array is not relied upon.
+     *
+     * @param result   Reply body
+     * @param requests Requests of the batch
+     * @return Responses in the same order as requests
+     * @throws IOException Reply is not an array or a reply is missing
+     */
+    protected List<Response<?>> readBatchReply(InputStream result, List<Request<?, ?>> requests) throws IOException {
+        return readBatchReply(result, requests, indexForId(requests));
+    }
+
+    /**
+     * @param indexForId Ids of the batch, see {@link #indexForId(List)}
+     */
+    protected List<Response<?>> readBatchReply(InputStream result, List<Request<?, ?>> requests,
+                                               Map<Long, Integer> indexForId) throws IOException {
+        JsonNode replyJson = objectMapper.readTree(result);
+        if (replyJson == null || !replyJson.isArray()) {
+            // a single reply object means the batch as a whole was rejected
+            throw new IOException("Batch request failed: " + replyJson);
+        }
+
+        Response<?>[] responses = new Response<?>[requests.size()];
+        for (JsonNode reply : replyJson) {
+            JsonNode idField = reply.get("id");
+            Integer index = idField == null || !idField.isIntegralNumber() ? null : indexForId.get(idField.longValue());
+            if (index == null) {
+                throw new IOException("Received batch reply for unexpected request id: " + idField);
+            }
+            responses[index] = objectMapper.treeToValue(reply, requests.get(index).getResponseType());
+        }
+        for (int i = 0; i < responses.length; i++) {
+            if (responses[i] == null) {
+                throw new IOException("Missing batch reply for request id: " + requests.get(i).getId());
+            }
+        }
+        return new ArrayList<>(Arrays.asList(responses));
+    }
 }
@@ -0,0 +1,143 @@
+package org.vitej.core.protocol;
+
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * RpcService decorator that deduplicates identical requests in flight. While a request with the
+ * same method and params is waiting for its reply, later callers attach to it instead of sending
+ * another one. Each caller that attached gets its own copy of the response.
+ * A caller that attaches waits no longer than its own deadline. A request with a deadline is sent
+ * on its own when there is nothing to attach to, so callers without a deadline never fail with
+ * another caller's deadline.
+ * Only methods matching the predicate are deduplicated, by default read-only methods.
+ */
+public class SingleFlightRpcService extends DelegatingRpcService {
+    private final Predicate<String> deduplicated;
+    private final ConcurrentMap<String, CompletableFuture<Response<?>>> inFlight = new ConcurrentHashMap<>();
+
+    public SingleFlightRpcService(RpcService delegate) {
+        this(delegate, RpcMethodClassifier::isReadOnly);
+    }
+
+    /**
+     * @param delegate     Service the requests are sent with
+     * @param deduplicated Whether requests of a method may be shared between callers
+     */
+    public SingleFlightRpcService(RpcService delegate, Predicate<String> deduplicated) {
+        super(delegate);
+        this.deduplicated = deduplicated;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        if (!deduplicated.test(request.getMethod())) {
+            return delegate.send(request, responseType);
+        }
+        String key = key(request, responseType);
+        CompletableFuture<Response<?>> flight = new CompletableFuture<>();
+        CompletableFuture<Response<?>> existing = request.hasDeadline() ? inFlight.get(key) : inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return (T) ProtocolHelper.copyFor(await(existing, request), request);
+        }
+        if (request.hasDeadline()) {
+            return delegate.send(request, responseType);
+        }
+        try {
+            T response = delegate.send(request, responseType);
+            flight.complete(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Every caller gets its own dependent future, cancelling it does not affect the other callers.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        if (!deduplicated.test(request.getMethod())) {
+            return delegate.sendAsync(request, responseType);
+        }
+        String key = key(request, responseType);
+        CompletableFuture<Response<?>> flight = new CompletableFuture<>();
+        CompletableFuture<Response<?>> existing = request.hasDeadline() ? inFlight.get(key) : inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return follow(existing, request).thenApply(response -> (T) ProtocolHelper.copyFor(response, request));
+        }
+        if (request.hasDeadline()) {
+            return delegate.sendAsync(request, responseType);
+        }
+        delegate.sendAsync(request, responseType).whenComplete((response, t) -> {
+            inFlight.remove(key, flight);
+            if (t != null) {
+                flight.completeExceptionally(Failures.unwrap(t));
+            } else {
+                flight.complete((Response<?>) response);
+            }
+        });
+        return flight.thenApply(response -> (T) response);
+    }
+
+    /**
+     * @return Number of distinct requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private static String key(Request<?, ?> request, Class<?> responseType) {
+        return responseType.getName() + ':' + ProtocolHelper.requestKey(request);
+    }
+
+    /**
+     * Return a future of the shared reply that fails at the deadline of the attaching request
+     */
+    private static CompletableFuture<Response<?>> follow(CompletableFuture<Response<?>> flight, Request<?, ?> request) {
+        CompletableFuture<Response<?>> follower = flight.thenApply(response -> response);
+        long remaining = request.getRemainingNanos();
+        if (remaining != Long.MAX_VALUE) {
+            ScheduledFuture<?> timeout = Async.scheduler().schedule(
+                    () -> follower.completeExceptionally(Service.deadlineExceeded(request)),
+                    Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            follower.whenComplete((r, t) -> timeout.cancel(false));
+        }
+        return follower;
+    }
+
+    private static Response<?> await(CompletableFuture<Response<?>> flight, Request<?, ?> request) throws IOException {
+        try {
+            long remaining = request.getRemainingNanos();
+            return remaining == Long.MAX_VALUE ? flight.get() : flight.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw Service.deadlineExceeded(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an identical request", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Unexpected exception", e.getCause());
+        }
+    }
+}
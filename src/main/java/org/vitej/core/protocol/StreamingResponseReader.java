@@ -0,0 +1,81 @@
+package org.vitej.core.protocol;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.vitej.core.protocol.methods.response.Response;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Reads a response whose result is a JSON array one element at a time, so that peak heap
+ * does not grow with the size of the page.
+ */
+public final class StreamingResponseReader {
+    private StreamingResponseReader() {
+    }
+
+    /**
+     * Walk the reply token by token and hand over the elements of the result array one by one
+     *
+     * @param parser       Parser positioned before the reply object
+     * @param responseType Response type, its result must be a collection
+     * @param consumer     Receives the elements of the result array in order
+     * @param <T>          Response type
+     * @return Response with id, jsonrpc and error filled in, result is always null
+     * @throws IOException Reply is malformed
+     */
+    public static <T extends Response> T read(JsonParser parser, Class<T> responseType, Consumer<Object> consumer) throws IOException {
+        ObjectMapper objectMapper = ProtocolHelper.getObjectMapper();
+        ObjectReader elementReader = objectMapper.readerFor(elementType(responseType));
+        T response;
+        try {
+            response = responseType.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot instantiate response type " + responseType.getName(), e);
+        }
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object, got " + parser.getCurrentToken());
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "id":
+                    response.setId(parser.getValueAsLong());
+                    break;
+                case "jsonrpc":
+                    response.setJsonrpc(parser.getValueAsString());
+                    break;
+                case "error":
+                    response.setError(token == JsonToken.VALUE_NULL ? null : parser.readValueAs(Response.Error.class));
+                    break;
+                case "result":
+                    if (token == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            consumer.accept(elementReader.readValue(parser));
+                        }
+                    } else if (token != JsonToken.VALUE_NULL) {
+                        throw new IOException("'result' expected to be an array, but it is: " + token);
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return response;
+    }
+
+    private static JavaType elementType(Class<? extends Response> responseType) {
+        JavaType[] typeParameters = ProtocolHelper.getObjectMapper().getTypeFactory()
+                .constructType(responseType).findTypeParameters(Response.class);
+        if (typeParameters.length != 1 || !typeParameters[0].isCollectionLikeType()) {
+            throw new IllegalArgumentException("Result of " + responseType.getSimpleName() + " is not a list");
+        }
+        return typeParameters[0].getContentType();
+    }
+}
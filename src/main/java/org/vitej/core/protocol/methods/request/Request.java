@@ -1,12 +1,15 @@
 package org.vitej.core.protocol.methods.request;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.vitej.core.protocol.RpcService;
 import org.vitej.core.protocol.methods.response.Response;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Vite RPC request
@@ -26,6 +29,8 @@ public class Request<S, T extends Response> {
 
     private Class<T> responseType;
 
+    private long deadlineNanos = Long.MAX_VALUE;
+
     public Request(String method, List<S> params, RpcService rpcService, Class<T> responseType) {
         this.method = method;
         this.params = params;
@@ -42,6 +47,51 @@ public class Request<S, T extends Response> {
         return rpcService.sendAsync(this, responseType);
     }
 
+    /**
+     * Send the request and hand over the elements of a list result one at a time, e.g. the
+     * account blocks of getAccountBlocksByAddress, instead of building the whole list in memory
+     *
+     * @param consumer Receives the elements of the result in order
+     * @param <E>      Element type of the result list
+     * @return Response with id and error filled in, result is always null
+     * @throws IOException Connection failed or the reply is malformed
+     */
+    @SuppressWarnings("unchecked")
+    public <E> T stream(Consumer<? super E> consumer) throws IOException {
+        return rpcService.stream(this, responseType, element -> consumer.accept((E) element));
+    }
+
+    /**
+     * Set a deadline for the request, counted from now. It covers everything until the reply
+     * arrives, including time spent queued, coalesced or retried by RpcService decorators.
+     * Requests that miss their deadline fail with an {@link java.io.InterruptedIOException}.
+     * HttpService and WebSocketService cancel the network call, other transports interrupt
+     * their blocking call.
+     *
+     * @param timeout Time from now until the deadline
+     * @return This request
+     */
+    public Request<S, T> withDeadline(Duration timeout) {
+        this.deadlineNanos = System.nanoTime() + timeout.toNanos();
+        return this;
+    }
+
+    @JsonIgnore
+    public boolean hasDeadline() {
+        return deadlineNanos != Long.MAX_VALUE;
+    }
+
+    /**
+     * Return the time left until the deadline
+     *
+     * @return Remaining nanoseconds, zero or negative when the deadline has passed,
+     * Long.MAX_VALUE when the request has no deadline
+     */
+    @JsonIgnore
+    public long getRemainingNanos() {
+        return hasDeadline() ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
     public String getJsonrpc() {
         return jsonrpc;
     }
@@ -74,6 +124,7 @@ public class Request<S, T extends Response> {
         this.params = params;
     }
 
+    @JsonIgnore
     public Class<T> getResponseType() {
         return responseType;
     }
@@ -0,0 +1,191 @@
+package org.vitej.core.protocol.metrics;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default {@link RpcMetricsListener}, keeps per-method counters and a latency histogram in
+ * memory. Read them with {@link #snapshot()}, or {@link #report()} for a table sorted by the
+ * total time spent in each method.
+ */
+public class InMemoryRpcMetrics implements RpcMetricsListener {
+    private final ConcurrentMap<String, MethodMetrics> metricsForMethod = new ConcurrentHashMap<>();
+
+    @Override
+    public void onRequestStart(String method) {
+        metrics(method).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void onRequestEnd(String method, long latencyNanos, long requestBytes, long responseBytes, int errorCode, Throwable failure) {
+        MethodMetrics metrics = metrics(method);
+        metrics.inFlight.decrementAndGet();
+        metrics.latency.record(latencyNanos);
+        metrics.requestBytes.add(requestBytes);
+        metrics.responseBytes.add(responseBytes);
+        if (failure instanceof InterruptedIOException) {
+            metrics.timeouts.increment();
+        } else if (failure != null) {
+            metrics.failures.increment();
+        } else if (errorCode != 0) {
+            metrics.errors.computeIfAbsent(errorCode, code -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * @return Metrics of every method seen so far, by method
+     */
+    public Map<String, MethodSnapshot> snapshot() {
+        Map<String, MethodSnapshot> snapshot = new TreeMap<>();
+        metricsForMethod.forEach((method, metrics) -> snapshot.put(method, metrics.snapshot(method)));
+        return snapshot;
+    }
+
+    /**
+     * @return One line per method with counts, latency percentiles in milliseconds and bytes,
+     * methods with the most total latency first
+     */
+    public String report() {
+        List<MethodSnapshot> methods = new ArrayList<>(snapshot().values());
+        methods.sort(Comparator.comparingLong(MethodSnapshot::getTotalLatencyNanos).reversed());
+        StringBuilder sb = new StringBuilder(String.format("%-48s %8s %6s %6s %6s %6s %9s %9s %9s %9s %12s %12s%n",
+                "method", "count", "flight", "errors", "fails", "tmouts", "p50", "p90", "p99", "max", "req bytes", "resp bytes"));
+        for (MethodSnapshot m : methods) {
+            sb.append(String.format("%-48s %8d %6d %6d %6d %6d %9.3f %9.3f %9.3f %9.3f %12d %12d%n",
+                    m.getMethod(), m.getCount(), m.getInFlight(), m.getErrorCount(), m.getFailures(), m.getTimeouts(),
+                    millis(m.getLatency().getValueAtPercentile(50)), millis(m.getLatency().getValueAtPercentile(90)),
+                    millis(m.getLatency().getValueAtPercentile(99)), millis(m.getLatency().getMax()),
+                    m.getRequestBytes(), m.getResponseBytes()));
+        }
+        return sb.toString();
+    }
+
+    public void reset() {
+        metricsForMethod.clear();
+    }
+
+    private MethodMetrics metrics(String method) {
+        MethodMetrics metrics = metricsForMethod.get(method);
+        return metrics != null ? metrics : metricsForMethod.computeIfAbsent(method, m -> new MethodMetrics());
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static class MethodMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final ConcurrentMap<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+
+        MethodSnapshot snapshot(String method) {
+            Map<Integer, Long> errorCounts = new TreeMap<>();
+            errors.forEach((code, count) -> errorCounts.put(code, count.sum()));
+            return new MethodSnapshot(method, latency.copy(), inFlight.get(), requestBytes.sum(), responseBytes.sum(),
+                    timeouts.sum(), failures.sum(), Collections.unmodifiableMap(errorCounts));
+        }
+    }
+
+    public static class MethodSnapshot {
+        private final String method;
+        private final LatencyHistogram latency;
+        private final long inFlight;
+        private final long requestBytes;
+        private final long responseBytes;
+        private final long timeouts;
+        private final long failures;
+        private final Map<Integer, Long> errorCounts;
+
+        MethodSnapshot(String method, LatencyHistogram latency, long inFlight, long requestBytes, long responseBytes,
+                       long timeouts, long failures, Map<Integer, Long> errorCounts) {
+            this.method = method;
+            this.latency = latency;
+            this.inFlight = inFlight;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.timeouts = timeouts;
+            this.failures = failures;
+            this.errorCounts = errorCounts;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return Latency in nanoseconds of every ended request, answered or not
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        public long getTotalLatencyNanos() {
+            return latency.getSum();
+        }
+
+        public long getInFlight() {
+            return inFlight;
+        }
+
+        public long getRequestBytes() {
+            return requestBytes;
+        }
+
+        public long getResponseBytes() {
+            return responseBytes;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return Number of replies with a JSON-RPC error, by error code
+         */
+        public Map<Integer, Long> getErrorCounts() {
+            return errorCounts;
+        }
+
+        public long getErrorCount() {
+            return errorCounts.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        @Override
+        public String toString() {
+            return "MethodSnapshot{" +
+                    "method='" + method + '\'' +
+                    ", count=" + getCount() +
+                    ", inFlight=" + inFlight +
+                    ", p50=" + latency.getValueAtPercentile(50) +
+                    ", p99=" + latency.getValueAtPercentile(99) +
+                    ", requestBytes=" + requestBytes +
+                    ", responseBytes=" + responseBytes +
+                    ", timeouts=" + timeouts +
+                    ", failures=" + failures +
+                    ", errorCounts=" + errorCounts +
+                    '}';
+        }
+    }
+}
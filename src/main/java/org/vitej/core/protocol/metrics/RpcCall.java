@@ -0,0 +1,135 @@
+package org.vitej.core.protocol.metrics;
+
+import com.google.common.io.CountingInputStream;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurement of one request or batch on its way through a transport, reported to a
+ * {@link RpcMetricsListener} when it ends. Without a listener the shared disabled instance is
+ * used and every method returns at once.
+ */
+public final class RpcCall {
+    private static final RpcCall DISABLED = new RpcCall(null, Collections.emptyList());
+
+    private final RpcMetricsListener listener;
+    private final List<String> methods;
+    private final long startNanos;
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicBoolean ended = new AtomicBoolean();
+    private volatile CountingInputStream responseStream;
+
+    private RpcCall(RpcMetricsListener listener, List<String> methods) {
+        this.listener = listener;
+        this.methods = methods;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Start measuring a request
+     *
+     * @param listener Listener to report to, null to measure nothing
+     * @param payload  Request or list of requests
+     * @return The call
+     */
+    public static RpcCall start(RpcMetricsListener listener, Object payload) {
+        if (listener == null) {
+            return DISABLED;
+        }
+        List<String> methods;
+        if (payload instanceof Request) {
+            methods = Collections.singletonList(((Request<?, ?>) payload).getMethod());
+        } else if (payload instanceof List) {
+            methods = new ArrayList<>();
+            for (Object request : (List<?>) payload) {
+                methods.add(((Request<?, ?>) request).getMethod());
+            }
+        } else {
+            return DISABLED;
+        }
+        RpcCall call = new RpcCall(listener, methods);
+        for (String method : methods) {
+            listener.onRequestStart(method);
+        }
+        return call;
+    }
+
+    public boolean isEnabled() {
+        return listener != null;
+    }
+
+    public void addRequestBytes(long bytes) {
+        if (listener != null) {
+            requestBytes.addAndGet(bytes);
+        }
+    }
+
+    public void addResponseBytes(long bytes) {
+        if (listener != null) {
+            responseBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Count the bytes read from a reply body
+     *
+     * @param in Reply body, may be null
+     * @return Stream to read the reply from
+     */
+    public InputStream countResponse(InputStream in) {
+        if (listener == null || in == null) {
+            return in;
+        }
+        CountingInputStream counting = new CountingInputStream(in);
+        responseStream = counting;
+        return counting;
+    }
+
+    /**
+     * The call was answered, only the first end or failure is reported
+     *
+     * @param reply Response, or list of responses of a batch
+     */
+    public void end(Object reply) {
+        if (listener == null || !ended.compareAndSet(false, true)) {
+            return;
+        }
+        long latency = System.nanoTime() - startNanos;
+        int n = methods.size();
+        for (int i = 0; i < n; i++) {
+            Object response = reply instanceof List ? ((List<?>) reply).get(i) : reply;
+            int errorCode = response instanceof Response && ((Response<?>) response).hasError()
+                    ? ((Response<?>) response).getError().getCode() : 0;
+            listener.onRequestEnd(methods.get(i), latency, requestBytes.get() / n, totalResponseBytes() / n, errorCode, null);
+        }
+    }
+
+    /**
+     * The call failed, only the first end or failure is reported
+     *
+     * @param failure Why no reply was received
+     */
+    public void fail(Throwable failure) {
+        if (listener == null || !ended.compareAndSet(false, true)) {
+            return;
+        }
+        long latency = System.nanoTime() - startNanos;
+        int n = methods.size();
+        for (String method : methods) {
+            listener.onRequestEnd(method, latency, requestBytes.get() / n, totalResponseBytes() / n, 0, failure);
+        }
+    }
+
+    private long totalResponseBytes() {
+        CountingInputStream stream = responseStream;
+        return responseBytes.get() + (stream == null ? 0 : stream.getCount());
+    }
+}
@@ -0,0 +1,34 @@
+package org.vitej.core.protocol.metrics;
+
+/**
+ * Receives what RpcService implementations do on the wire, one pair of calls per JSON-RPC
+ * request. Set it with {@code setMetricsListener} on {@link org.vitej.core.protocol.Service}
+ * subclasses and on {@link org.vitej.core.protocol.websocket.WebSocketService}.
+ * <p>
+ * Implementations are called from the threads the requests are sent and answered on and must be
+ * thread-safe and cheap. The requests of a batch are reported one by one, each with the latency
+ * of the whole batch and an equal share of its bytes.
+ *
+ * @see InMemoryRpcMetrics
+ */
+public interface RpcMetricsListener {
+    /**
+     * A request is about to be sent
+     *
+     * @param method JSON-RPC method
+     */
+    void onRequestStart(String method);
+
+    /**
+     * A request sent before has been answered or has failed
+     *
+     * @param method        JSON-RPC method
+     * @param latencyNanos  Time since the request started
+     * @param requestBytes  Bytes of the request as sent, gzip-compressed if enabled
+     * @param responseBytes Bytes of the reply read
+     * @param errorCode     JSON-RPC error code of the reply, 0 if it has none
+     * @param failure       Why no reply was received, e.g. an InterruptedIOException on timeout,
+     *                      null when a reply was received
+     */
+    void onRequestEnd(String method, long latencyNanos, long requestBytes, long responseBytes, int errorCode, Throwable failure);
+}
@@ -0,0 +1,327 @@
+package org.vitej.core.protocol.store;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vitej.core.protocol.methods.response.AccountBlock;
+import org.vitej.core.protocol.methods.response.SnapshotBlock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store of account blocks and snapshot blocks in memory-mapped segment files.
+ * <p>
+ * Each segment is a file of fixed capacity holding records of
+ * {@code [int length][int crc32][byte kind][length bytes of JSON]}. The length is written last,
+ * so a record torn by a crash reads as the end of the segment. Indexes by hash, by
+ * (address, height) and by snapshot height are kept in memory and rebuilt by scanning the
+ * segments on open.
+ * <p>
+ * Blocks are stored field by field, the same raw values gvite returns, so that reading a block
+ * back yields an object equal to the one received from the node. The confirmations of account
+ * blocks are left out, they grow with every snapshot block, so blocks read back have
+ * confirmations null.
+ */
+public class MappedBlockStore implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MappedBlockStore.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final byte KIND_ACCOUNT_BLOCK = 1;
+    private static final byte KIND_SNAPSHOT_BLOCK = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static final ObjectMapper RECORD_MAPPER = new ObjectMapper()
+            .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final File directory;
+    private final int segmentSize;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private int writeOffset;
+    private boolean closed;
+
+    private final Map<String, Long> accountBlockByHash = new ConcurrentHashMap<>();
+    private final Map<String, Long> accountBlockByAddressHeight = new ConcurrentHashMap<>();
+    private final Map<String, Long> snapshotBlockByHash = new ConcurrentHashMap<>();
+    private final Map<Long, Long> snapshotBlockByHeight = new ConcurrentHashMap<>();
+
+    public MappedBlockStore(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open the store, creating the directory if necessary, and rebuild the indexes
+     *
+     * @param directory   Directory of the segment files
+     * @param segmentSize Capacity of each segment file in bytes
+     * @throws IOException Failed to create or map the segment files
+     */
+    public MappedBlockStore(File directory, int segmentSize) throws IOException {
+        Preconditions.checkArgument(segmentSize > HEADER_SIZE, "segmentSize too small");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create block store directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        load();
+    }
+
+    /**
+     * @throws IllegalStateException The store is closed
+     */
+    public AccountBlock getAccountBlock(String hash) throws IOException {
+        return readAccountBlock(accountBlockByHash.get(hash));
+    }
+
+    /**
+     * @throws IllegalStateException The store is closed
+     */
+    public AccountBlock getAccountBlock(String address, long height) throws IOException {
+        return readAccountBlock(accountBlockByAddressHeight.get(address + ':' + height));
+    }
+
+    /**
+     * @throws IllegalStateException The store is closed
+     */
+    public SnapshotBlock getSnapshotBlock(String hash) throws IOException {
+        return read(snapshotBlockByHash.get(hash), SnapshotBlock.class);
+    }
+
+    /**
+     * @throws IllegalStateException The store is closed
+     */
+    public SnapshotBlock getSnapshotBlock(long height) throws IOException {
+        return read(snapshotBlockByHeight.get(height), SnapshotBlock.class);
+    }
+
+    /**
+     * Append an account block unless a block with the same hash is stored already
+     *
+     * @param block Account block, hash, address and height are required
+     * @throws IOException           Failed to grow the store
+     * @throws IllegalStateException The store is closed
+     */
+    public synchronized void putAccountBlock(AccountBlock block) throws IOException {
+        checkOpen();
+        if (block.getHashRaw() == null || accountBlockByHash.containsKey(block.getHashRaw())) {
+            return;
+        }
+        JsonNode record = RECORD_MAPPER.valueToTree(block);
+        removeConfirmations(record);
+        byte[] payload = RECORD_MAPPER.writeValueAsBytes(record);
+        index(KIND_ACCOUNT_BLOCK, payload, append(KIND_ACCOUNT_BLOCK, payload));
+    }
+
+    /**
+     * Append a snapshot block unless a block with the same hash is stored already
+     *
+     * @param block Snapshot block, hash and height are required
+     * @throws IOException           Failed to grow the store
+     * @throws IllegalStateException The store is closed
+     */
+    public synchronized void putSnapshotBlock(SnapshotBlock block) throws IOException {
+        checkOpen();
+        if (block.getHashRaw() == null || snapshotBlockByHash.containsKey(block.getHashRaw())) {
+            return;
+        }
+        byte[] payload = RECORD_MAPPER.writeValueAsBytes(block);
+        index(KIND_SNAPSHOT_BLOCK, payload, append(KIND_SNAPSHOT_BLOCK, payload));
+    }
+
+    public int getAccountBlockCount() {
+        return accountBlockByHash.size();
+    }
+
+    public int getSnapshotBlockCount() {
+        return snapshotBlockByHash.size();
+    }
+
+    /**
+     * Flush the mapped segments to disk
+     */
+    public synchronized void flush() {
+        checkOpen();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        segments.clear();
+    }
+
+    private void checkOpen() {
+        Preconditions.checkState(!closed, "block store is closed");
+    }
+
+    private void load() throws IOException {
+        for (int i = 0; ; i++) {
+            File file = segmentFile(i);
+            if (!file.exists()) {
+                break;
+            }
+            MappedByteBuffer segment = map(file);
+            segments.add(segment);
+            writeOffset = scan(i, segment);
+        }
+        if (segments.isEmpty()) {
+            segments.add(map(segmentFile(0)));
+            writeOffset = 0;
+        }
+        log.info("Loaded block store {}: {} account blocks, {} snapshot blocks",
+                directory, accountBlockByHash.size(), snapshotBlockByHash.size());
+    }
+
+    /**
+     * Index the records of a segment and return the offset after the last valid record
+     */
+    private int scan(int segmentIndex, MappedByteBuffer segment) throws IOException {
+        int offset = 0;
+        while (offset + HEADER_SIZE <= segmentSize) {
+            int length = segment.getInt(offset);
+            if (length <= 0 || offset + HEADER_SIZE + length > segmentSize) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            getBytes(segment, offset + HEADER_SIZE, payload);
+            if ((int) crc(payload) != segment.getInt(offset + 4)) {
+                log.warn("Corrupt record in block store segment {} at offset {}, ignoring the rest of the segment", segmentIndex, offset);
+                break;
+            }
+            index(segment.get(offset + 8), payload, position(segmentIndex, offset));
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    private long append(byte kind, byte[] payload) throws IOException {
+        int recordSize = HEADER_SIZE + payload.length;
+        Preconditions.checkArgument(recordSize <= segmentSize, "block larger than a segment");
+        if (writeOffset + recordSize > segmentSize) {
+            segments.add(map(segmentFile(segments.size())));
+            writeOffset = 0;
+        }
+        int segmentIndex = segments.size() - 1;
+        MappedByteBuffer segment = segments.get(segmentIndex);
+        int offset = writeOffset;
+        segment.putInt(offset + 4, (int) crc(payload));
+        segment.put(offset + 8, kind);
+        putBytes(segment, offset + HEADER_SIZE, payload);
+        // the length makes the record visible, so it goes last
+        segment.putInt(offset, payload.length);
+        writeOffset += recordSize;
+        return position(segmentIndex, offset);
+    }
+
+    private void index(byte kind, byte[] payload, long position) throws IOException {
+        if (kind == KIND_ACCOUNT_BLOCK) {
+            AccountBlock block = RECORD_MAPPER.readValue(payload, AccountBlock.class);
+            accountBlockByHash.put(block.getHashRaw(), position);
+            if (block.getAddressRaw() != null && block.getHeightRaw() != null) {
+                accountBlockByAddressHeight.put(block.getAddressRaw() + ':' + block.getHeight(), position);
+            }
+        } else if (kind == KIND_SNAPSHOT_BLOCK) {
+            SnapshotBlock block = RECORD_MAPPER.readValue(payload, SnapshotBlock.class);
+            snapshotBlockByHash.put(block.getHashRaw(), position);
+            if (block.getHeight() != null) {
+                snapshotBlockByHeight.put(block.getHeight(), position);
+            }
+        }
+    }
+
+    private <T> T read(Long position, Class<T> type) throws IOException {
+        if (position == null) {
+            return null;
+        }
+        MappedByteBuffer segment;
+        synchronized (this) {
+            checkOpen();
+            segment = segments.get((int) (position >>> 32));
+        }
+        int offset = (int) (long) position;
+        byte[] payload = new byte[segment.getInt(offset)];
+        getBytes(segment, offset + HEADER_SIZE, payload);
+        return RECORD_MAPPER.readValue(payload, type);
+    }
+
+    /**
+     * Read an account block, dropping confirmations that records of older versions still hold
+     */
+    private AccountBlock readAccountBlock(Long position) throws IOException {
+        JsonNode record = read(position, JsonNode.class);
+        if (record == null) {
+            return null;
+        }
+        removeConfirmations(record);
+        return RECORD_MAPPER.treeToValue(record, AccountBlock.class);
+    }
+
+    private static void removeConfirmations(JsonNode block) {
+        if (!(block instanceof ObjectNode)) {
+            return;
+        }
+        ((ObjectNode) block).remove("confirmations");
+        for (JsonNode triggered : block.path("triggeredSendBlockList")) {
+            removeConfirmations(triggered);
+        }
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private File segmentFile(int index) {
+        return new File(directory, String.format("%s%05d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static long position(int segmentIndex, int offset) {
+        return ((long) segmentIndex << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static long crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return crc.getValue();
+    }
+
+    private static void getBytes(ByteBuffer buffer, int offset, byte[] dst) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(dst);
+    }
+
+    private static void putBytes(ByteBuffer buffer, int offset, byte[] src) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(src);
+    }
+}
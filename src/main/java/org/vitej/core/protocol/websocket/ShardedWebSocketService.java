@@ -0,0 +1,330 @@
+package org.vitej.core.protocol.websocket;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vitej.core.protocol.ProtocolHelper;
+import org.vitej.core.protocol.RpcService;
+import org.vitej.core.protocol.methods.Address;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.websocket.events.Notification;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * RpcService over several WebSocket connections to the same node, for many subscriptions and high
+ * request rates that one socket cannot carry. Requests and subscriptions with an address in their
+ * params are spread over the connections by consistent hashing on the address, so everything about
+ * one address goes over one connection. Other subscriptions are hashed on their method and params,
+ * other requests go round-robin.
+ * <p>
+ * While a connection is lost its share moves to the next connections on the hash ring, its
+ * subscriptions are subscribed there again. Once it reconnects they move back. Events sent by the
+ * node while a subscription moves can be missed or delivered twice.
+ */
+public class ShardedWebSocketService implements RpcService {
+    private static final Logger log = LoggerFactory.getLogger(ShardedWebSocketService.class);
+    private static final HashFunction HASH = Hashing.murmur3_32_fixed();
+    static final int VIRTUAL_NODES = 160;
+
+    private final List<WebSocketService> shards;
+    private final NavigableMap<Integer, WebSocketService> ring = new TreeMap<>();
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final Set<ShardedSubscription<?>> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("vitej-ws-shard-%d").setDaemon(true).build());
+    private volatile SubscriptionBackpressure backpressure = SubscriptionBackpressure.DEFAULT;
+
+    public ShardedWebSocketService(String url, int connections) {
+        this(url, connections, ProtocolHelper.getClient());
+    }
+
+    public ShardedWebSocketService(String url, int connections, OkHttpClient httpClient) {
+        Preconditions.checkArgument(connections > 0, "connections must be positive");
+        List<WebSocketService> services = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            services.add(new WebSocketService(url, httpClient));
+        }
+        this.shards = Collections.unmodifiableList(services);
+        for (int i = 0; i < shards.size(); i++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                ring.put(hash(i + "#" + node), shards.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return Connections of this service, to configure timeouts, reconnects and metrics
+     */
+    public List<WebSocketService> getShards() {
+        return shards;
+    }
+
+    /**
+     * Backpressure of subscriptions created from now on, see {@link WebSocketService#setSubscriptionBackpressure}
+     */
+    public void setSubscriptionBackpressure(SubscriptionBackpressure backpressure) {
+        this.backpressure = Preconditions.checkNotNull(backpressure);
+    }
+
+    public void connect() {
+        for (WebSocketService shard : shards) {
+            shard.setConnectionListener((service, connected) -> executor.execute(this::rebalance));
+            shard.connect();
+        }
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        return route(request).send(request, responseType);
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return route(request).sendAsync(request, responseType);
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        try {
+            return sendBatchAsync(requests).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted WebSocket request", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Unexpected exception", e.getCause());
+        }
+    }
+
+    /**
+     * Every request goes over the connection of its own address
+     */
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        List<CompletableFuture<? extends Response>> futures = new ArrayList<>(requests.size());
+        for (Request<?, ?> request : requests) {
+            futures.add(sendAsync(request, request.getResponseType()));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    List<Response<?>> responses = new ArrayList<>(futures.size());
+                    for (CompletableFuture<? extends Response> future : futures) {
+                        responses.add((Response<?>) future.join());
+                    }
+                    return responses;
+                });
+    }
+
+    @Override
+    public <T extends Response> T stream(Request request, Class<T> responseType, Consumer<Object> consumer) throws IOException {
+        return route(request).stream(request, responseType, consumer);
+    }
+
+    /**
+     * Every subscriber gets its own subscription on the connection that owns it, subscribed once
+     * the subscriber listens and unsubscribed when it cancels or the subscription fails.
+     */
+    @Override
+    public <T extends Notification<?>> Flowable<T> subscribe(Request request) {
+        SubscriptionBackpressure backpressure = this.backpressure;
+        return Flowable.defer(() -> {
+            ShardedSubscription<T> subscription = new ShardedSubscription<>(request);
+            subscriptions.add(subscription);
+            return backpressure.apply(subscription.relay, subscription.stats)
+                    .mergeWith(Completable.fromAction(() -> subscription.attach(owner(subscription.key))))
+                    .doFinally(() -> {
+                        subscriptions.remove(subscription);
+                        subscription.detach();
+                    });
+        });
+    }
+
+    /**
+     * @return Subscriptions that have not been disposed, with their event counts
+     */
+    public List<SubscriptionStats> getSubscriptionStats() {
+        List<SubscriptionStats> stats = new ArrayList<>();
+        subscriptions.forEach(subscription -> stats.add(subscription.stats));
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        for (WebSocketService shard : shards) {
+            shard.setConnectionListener(null);
+            shard.close();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Move subscriptions to the connection that owns them now
+     */
+    private void rebalance() {
+        for (ShardedSubscription<?> subscription : subscriptions) {
+            subscription.attach(owner(subscription.key));
+        }
+    }
+
+    private WebSocketService route(Request<?, ?> request) {
+        String address = routingAddress(request);
+        if (address != null) {
+            return owner(address);
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            WebSocketService shard = shards.get(Math.floorMod(nextShard.getAndIncrement(), shards.size()));
+            if (shard.isConnected()) {
+                return shard;
+            }
+        }
+        return shards.get(0);
+    }
+
+    /**
+     * @return First connected shard clockwise from the key on the ring, the shard of the key itself
+     * if none is connected
+     */
+    private WebSocketService owner(String key) {
+        int hash = hash(key);
+        WebSocketService first = null;
+        for (WebSocketService shard : Iterables.concat(ring.tailMap(hash, true).values(), ring.headMap(hash, false).values())) {
+            if (first == null) {
+                first = shard;
+            }
+            if (shard.isConnected()) {
+                return shard;
+            }
+        }
+        return first;
+    }
+
+    static String routingAddress(Request<?, ?> request) {
+        if (request.getParams() == null) {
+            return null;
+        }
+        for (Object param : request.getParams()) {
+            if (param instanceof Address) {
+                return param.toString();
+            }
+            if (param instanceof String && isAddress((String) param)) {
+                return (String) param;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isAddress(String s) {
+        return s.length() == 55 && s.startsWith("vite_");
+    }
+
+    private static int hash(String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asInt();
+    }
+
+    /**
+     * A local subscription, fed by a subscription on the connection that currently owns it
+     */
+    private final class ShardedSubscription<T extends Notification<?>> {
+        private final Request<?, ?> request;
+        private final String key;
+        private final Subject<T> relay = PublishSubject.<T>create().toSerialized();
+        private final SubscriptionStats stats = new SubscriptionStats();
+        private WebSocketService shard;
+        private Disposable upstream;
+        private boolean detached;
+
+        ShardedSubscription(Request<?, ?> request) {
+            this.request = request;
+            String address = routingAddress(request);
+            this.key = address != null ? address : ProtocolHelper.requestKey(request);
+        }
+
+        /**
+         * Subscribing on the connection waits for its reply, which may fail the subscription on the
+         * reader thread, so the lock is not held meanwhile
+         */
+        void attach(WebSocketService target) {
+            Disposable previous;
+            synchronized (this) {
+                if (detached || target == shard) {
+                    return;
+                }
+                previous = upstream;
+                upstream = null;
+                shard = target;
+            }
+            if (previous != null) {
+                previous.dispose();
+            }
+            List<?> params = request.getParams() == null ? null : new ArrayList<>(request.getParams());
+            Request<?, ?> shardRequest = new Request<>(request.getMethod(), params, target, request.getResponseType());
+            Flowable<T> events = target.subscribe(shardRequest);
+            Disposable subscribed = events.subscribe(relay::onNext, t -> onUpstreamError(target, t));
+            synchronized (this) {
+                if (!detached && target == shard) {
+                    upstream = subscribed;
+                    return;
+                }
+            }
+            // detached, failed or moved on while subscribing
+            subscribed.dispose();
+        }
+
+        /**
+         * A subscription lost with its connection is subscribed again by a rebalance
+         */
+        private synchronized void onUpstreamError(WebSocketService target, Throwable t) {
+            if (target != shard) {
+                return;
+            }
+            if (!(t instanceof WebSocketClosedException)) {
+                // a rebalance must not attach to the terminated relay before the subscriber cleans up
+                detached = true;
+                upstream = null;
+                relay.onError(t);
+                return;
+            }
+            log.warn("Subscription {} lost with its connection", request.getMethod(), t);
+            shard = null;
+            upstream = null;
+            if (!executor.isShutdown()) {
+                executor.execute(ShardedWebSocketService.this::rebalance);
+            }
+        }
+
+        synchronized void detach() {
+            detached = true;
+            if (upstream != null) {
+                upstream.dispose();
+            }
+        }
+    }
+}
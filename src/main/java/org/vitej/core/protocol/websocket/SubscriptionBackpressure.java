@@ -0,0 +1,75 @@
+package org.vitej.core.protocol.websocket;
+
+import com.google.common.base.Preconditions;
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+
+/**
+ * How a subscription Flowable holds events that arrive faster than its subscriber requests them.
+ * Every strategy keeps a bounded number of events per subscriber, so a slow consumer cannot grow
+ * the heap without limit.
+ */
+public final class SubscriptionBackpressure {
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final SubscriptionBackpressure DEFAULT = dropOldest(DEFAULT_CAPACITY);
+
+    public enum Strategy {
+        /**
+         * Buffer up to the capacity, then drop the oldest buffered event for every new one
+         */
+        DROP_OLDEST,
+        /**
+         * Keep only the latest event
+         */
+        LATEST,
+        /**
+         * Buffer up to the capacity, then fail the Flowable with a MissingBackpressureException
+         */
+        ERROR
+    }
+
+    private final Strategy strategy;
+    private final int capacity;
+
+    private SubscriptionBackpressure(Strategy strategy, int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.strategy = strategy;
+        this.capacity = capacity;
+    }
+
+    public static SubscriptionBackpressure dropOldest(int capacity) {
+        return new SubscriptionBackpressure(Strategy.DROP_OLDEST, capacity);
+    }
+
+    public static SubscriptionBackpressure latest() {
+        return new SubscriptionBackpressure(Strategy.LATEST, 1);
+    }
+
+    public static SubscriptionBackpressure error(int capacity) {
+        return new SubscriptionBackpressure(Strategy.ERROR, capacity);
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    <T> Flowable<T> apply(Observable<T> events, SubscriptionStats stats) {
+        BackpressureOverflowStrategy overflow = strategy == Strategy.ERROR
+                ? BackpressureOverflowStrategy.ERROR : BackpressureOverflowStrategy.DROP_OLDEST;
+        return events.doOnNext(event -> stats.received())
+                .toFlowable(BackpressureStrategy.MISSING)
+                .onBackpressureBuffer(capacity, stats::dropped, overflow)
+                .doOnNext(event -> stats.delivered());
+    }
+
+    @Override
+    public String toString() {
+        return strategy + "(" + capacity + ")";
+    }
+}
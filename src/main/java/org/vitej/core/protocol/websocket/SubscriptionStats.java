@@ -0,0 +1,52 @@
+package org.vitej.core.protocol.websocket;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Event counts of a subscription, summed over its local subscribers
+ */
+public final class SubscriptionStats {
+    private final LongAdder receivedCount = new LongAdder();
+    private final LongAdder deliveredCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    void received() {
+        receivedCount.increment();
+    }
+
+    void delivered() {
+        deliveredCount.increment();
+    }
+
+    void dropped() {
+        droppedCount.increment();
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.sum();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.sum();
+    }
+
+    /**
+     * @return Events dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return Events buffered and not yet requested by the subscriber
+     */
+    public long getQueueDepth() {
+        return Math.max(0, getReceivedCount() - getDeliveredCount() - getDroppedCount());
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionStats{received=" + getReceivedCount() + ", delivered=" + getDeliveredCount()
+                + ", dropped=" + getDroppedCount() + ", queueDepth=" + getQueueDepth() + '}';
+    }
+}
@@ -0,0 +1,17 @@
+package org.vitej.core.protocol.websocket;
+
+import java.io.IOException;
+
+/**
+ * A WebSocket request failed because the connection is not open, it did not reach the node
+ * or its reply was lost
+ */
+public class WebSocketClosedException extends IOException {
+    public WebSocketClosedException(String message) {
+        super(message);
+    }
+
+    public WebSocketClosedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
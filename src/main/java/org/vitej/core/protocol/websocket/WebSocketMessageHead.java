@@ -0,0 +1,111 @@
+package org.vitej.core.protocol.websocket;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/**
+ * Routing fields of a WebSocket message: the id of a reply, or the method and subscription id of
+ * a notification. They are read from the start of the message and reading stops as soon as they
+ * are known. The tokens read up to there are kept, so the message is still bound as a whole
+ * without parsing it twice.
+ */
+final class WebSocketMessageHead {
+    private final TokenBuffer consumed;
+    private final JsonParser parser;
+    private Long id;
+    private boolean hasId;
+    private String method;
+    private String subscription;
+
+    private WebSocketMessageHead(JsonParser parser) {
+        this.parser = parser;
+        this.consumed = new TokenBuffer(parser);
+    }
+
+    /**
+     * @param parser Parser positioned before the message
+     */
+    static WebSocketMessageHead read(JsonParser parser) throws IOException {
+        WebSocketMessageHead head = new WebSocketMessageHead(parser);
+        head.readObject();
+        return head;
+    }
+
+    private void readObject() throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("WebSocket message is not a JSON object");
+        }
+        consumed.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            consumed.writeFieldName(name);
+            JsonToken value = parser.nextToken();
+            if ("id".equals(name)) {
+                hasId = true;
+                if (value != JsonToken.VALUE_NUMBER_INT) {
+                    throw new IOException(String.format("'id' expected to be long, but it is: '%s'", parser.getText()));
+                }
+                id = parser.getLongValue();
+                consumed.copyCurrentEvent(parser);
+                return;
+            } else if ("method".equals(name) && value == JsonToken.VALUE_STRING) {
+                method = parser.getText();
+                consumed.copyCurrentEvent(parser);
+            } else if ("params".equals(name) && value == JsonToken.START_OBJECT) {
+                if (readParams()) {
+                    return;
+                }
+            } else {
+                consumed.copyCurrentStructure(parser);
+            }
+        }
+        consumed.writeEndObject();
+    }
+
+    /**
+     * @return Whether the subscription id was found, reading stops inside params then
+     */
+    private boolean readParams() throws IOException {
+        consumed.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            consumed.writeFieldName(name);
+            parser.nextToken();
+            if ("subscription".equals(name) && parser.currentToken().isScalarValue()) {
+                subscription = parser.getText();
+                consumed.copyCurrentEvent(parser);
+                return true;
+            }
+            consumed.copyCurrentStructure(parser);
+        }
+        consumed.writeEndObject();
+        return false;
+    }
+
+    boolean isReply() {
+        return hasId;
+    }
+
+    boolean isNotification() {
+        return !hasId && (method != null || subscription != null);
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getSubscription() {
+        return subscription;
+    }
+
+    /**
+     * @return Parser over the whole message, the tokens read so far followed by the rest
+     */
+    JsonParser message() {
+        return JsonParserSequence.createFlattened(false, consumed.asParser(parser.getCodec()), parser);
+    }
+}
@@ -12,6 +12,8 @@
  */
 package org.vitej.core.protocol.websocket;
 
+import org.vitej.core.protocol.metrics.RpcCall;
+
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -22,10 +24,12 @@ import java.util.concurrent.CompletableFuture;
 class WebSocketRequest<T> {
     private CompletableFuture<T> onReply;
     private Class<T> responseType;
+    private RpcCall call;
 
-    public WebSocketRequest(CompletableFuture<T> onReply, Class<T> responseType) {
+    public WebSocketRequest(CompletableFuture<T> onReply, Class<T> responseType, RpcCall call) {
         this.onReply = onReply;
         this.responseType = responseType;
+        this.call = call;
     }
 
     public CompletableFuture<T> getOnReply() {
@@ -35,4 +39,8 @@ class WebSocketRequest<T> {
     public Class<T> getResponseType() {
         return responseType;
     }
+
+    public RpcCall getCall() {
+        return call;
+    }
 }
@@ -1,10 +1,15 @@
 package org.vitej.core.protocol.websocket;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.reactivex.BackpressureStrategy;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
-import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.PublishSubject;
 import okhttp3.OkHttpClient;
 import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
@@ -13,32 +18,79 @@ import org.slf4j.LoggerFactory;
 import org.vitej.core.protocol.ProtocolHelper;
 import org.vitej.core.protocol.RpcService;
 import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.EmptyResponse;
 import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.methods.response.SnapshotBlock;
+import org.vitej.core.protocol.methods.response.SnapshotBlocksResponse;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
 import org.vitej.core.protocol.methods.response.SubscribeResponse;
+import org.vitej.core.protocol.metrics.RpcCall;
+import org.vitej.core.protocol.metrics.RpcMetricsListener;
 import org.vitej.core.protocol.websocket.events.Notification;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
+/**
+ * RpcService over a WebSocket connection. A lost connection is reconnected with exponential
+ * backoff, every active subscription is then sent again and its new subscription id mapped onto the
+ * existing subject. Snapshot block subscriptions backfill the heights missed while disconnected
+ * with ledger_getSnapshotBlocks, so subscribers see every height in order.
+ */
 public class WebSocketService implements RpcService {
     private static final Logger log = LoggerFactory.getLogger(WebSocketService.class);
 
     public static final String DEFAULT_URL = "ws://127.0.0.1:41420";
+    public static final long DEFAULT_RECONNECT_INITIAL_DELAY_MILLIS = 500;
+    public static final long DEFAULT_RECONNECT_MAX_DELAY_MILLIS = 30_000;
+    static final int BACKFILL_PAGE_SIZE = 100;
+
     private final String url;
     private OkHttpClient client;
-    private WebSocket ws = null;
+    private volatile WebSocket ws = null;
 
     private final ObjectMapper objectMapper = ProtocolHelper.getObjectMapper();
     private Map<Long, WebSocketRequest<?>> requestForId = new ConcurrentHashMap<>();
     private Map<Long, WebSocketSubscription<?>> subscriptionRequestForId =
             new ConcurrentHashMap<>();
     private Map<String, WebSocketSubscription<?>> subscriptionForId = new ConcurrentHashMap<>();
+    private final Set<WebSocketSubscription<?>> activeSubscriptions = ConcurrentHashMap.newKeySet();
+    private final Map<String, WebSocketSubscription<?>> subscriptionForKey = new HashMap<>();
 
-    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 1024);
+    private volatile ScheduledExecutorService executor = newExecutor();
     static final long REQUEST_TIMEOUT = 60;
+    private volatile long requestTimeoutNanos = TimeUnit.SECONDS.toNanos(REQUEST_TIMEOUT);
+    private volatile SubscriptionBackpressure backpressure = SubscriptionBackpressure.DEFAULT;
+    private static final Executor DEFAULT_DISPATCH_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("vitej-ws-dispatch-%d").setDaemon(true).build());
+    private volatile Executor dispatchExecutor = DEFAULT_DISPATCH_EXECUTOR;
+    private volatile RpcMetricsListener metricsListener;
+
+    private volatile boolean autoReconnect = true;
+    private volatile long reconnectInitialDelayMillis = DEFAULT_RECONNECT_INITIAL_DELAY_MILLIS;
+    private volatile long reconnectMaxDelayMillis = DEFAULT_RECONNECT_MAX_DELAY_MILLIS;
+    private volatile boolean closed = true;
+    private volatile boolean connected;
+    private volatile boolean reconnecting;
+    private volatile ConnectionListener connectionListener;
+    private final AtomicLong connection = new AtomicLong();
+    private int reconnectAttempts;
+    private Consumer<String> onMessage;
+    private Consumer<Throwable> onError;
+    private Runnable onClose;
 
     public WebSocketService() {
         this(DEFAULT_URL);
@@ -53,6 +105,98 @@ public class WebSocketService implements RpcService {
         this.client = httpClient;
     }
 
+    /**
+     * @param metricsListener Listener to report every request to, null to stop reporting
+     */
+    public void setMetricsListener(RpcMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    public RpcMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Timeout of requests without a deadline of their own, see {@link Request#withDeadline}.
+     * 60 seconds by default.
+     *
+     * @param timeout Time to wait for a reply
+     * @param unit    Time unit of timeout
+     */
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout > 0, "timeout must be positive");
+        this.requestTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    public long getRequestTimeout(TimeUnit unit) {
+        return unit.convert(requestTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Backpressure of subscriptions created from now on without one of their own, a bounded
+     * drop-oldest buffer of {@link SubscriptionBackpressure#DEFAULT_CAPACITY} events by default
+     */
+    public void setSubscriptionBackpressure(SubscriptionBackpressure backpressure) {
+        this.backpressure = Preconditions.checkNotNull(backpressure);
+    }
+
+    public SubscriptionBackpressure getSubscriptionBackpressure() {
+        return backpressure;
+    }
+
+    /**
+     * Executor subscribers receive events on, so a slow subscriber does not hold up reading the
+     * socket. Events of one subscription are delivered one at a time and in order. Events waiting
+     * for a busy dispatcher are bounded by the capacity of the subscription's backpressure. A
+     * shared daemon thread pool by default, {@link MoreExecutors#directExecutor()} delivers on the
+     * socket reader thread. Applies to subscriptions created from now on.
+     */
+    public void setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = Preconditions.checkNotNull(dispatchExecutor);
+    }
+
+    /**
+     * @return Subscriptions that have not been disposed, with their event counts
+     */
+    public List<WebSocketSubscription<?>> getActiveSubscriptions() {
+        return Collections.unmodifiableList(new ArrayList<>(activeSubscriptions));
+    }
+
+    /**
+     * @return Whether the WebSocket is open
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @param connectionListener Listener told when the WebSocket opens and when it is lost, null to stop
+     */
+    public void setConnectionListener(ConnectionListener connectionListener) {
+        this.connectionListener = connectionListener;
+    }
+
+    /**
+     * @param autoReconnect Whether to reconnect and resubscribe after the connection is lost, true by default
+     */
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
+    }
+
+    /**
+     * Reconnect attempts wait a random delay between half and all of initialDelay * 2^attempt,
+     * capped at maxDelay
+     *
+     * @param initialDelay Delay before the first attempt
+     * @param maxDelay     Maximum delay between attempts
+     * @param unit         Time unit of initialDelay and maxDelay
+     */
+    public void setReconnectBackoff(long initialDelay, long maxDelay, TimeUnit unit) {
+        Preconditions.checkArgument(0 < initialDelay && initialDelay <= maxDelay, "invalid reconnect backoff");
+        this.reconnectInitialDelayMillis = unit.toMillis(initialDelay);
+        this.reconnectMaxDelayMillis = unit.toMillis(maxDelay);
+    }
+
     public void connect() {
         connect(s -> {
         }, t -> {
@@ -62,8 +206,33 @@ public class WebSocketService implements RpcService {
 
     public void connect(Consumer<String> onMessage, Consumer<Throwable> onError, Runnable onClose) {
         close();
+        executor = newExecutor();
+        reconnecting = false;
+        this.onMessage = onMessage;
+        this.onError = onError;
+        this.onClose = onClose;
+        closed = false;
+        open(false);
+    }
+
+    private void open(boolean reconnect) {
+        long current = connection.incrementAndGet();
         ws = client.newWebSocket(new okhttp3.Request.Builder().url(url).build(),
                 new WebSocketListener() {
+                    @Override
+                    public void onOpen(WebSocket webSocket, okhttp3.Response response) {
+                        connectionChanged(current, true);
+                        if (reconnect) {
+                            log.info("WebSocket reconnected to {}", url);
+                            execute(() -> {
+                                reconnectAttempts = 0;
+                                // subscriptions created from now on are subscribed by themselves
+                                reconnecting = false;
+                                activeSubscriptions.forEach(WebSocketService.this::resubscribe);
+                            });
+                        }
+                    }
+
                     @Override
                     public void onMessage(WebSocket webSocket, String text) {
                         try {
@@ -75,25 +244,167 @@ public class WebSocketService implements RpcService {
                         onMessage.accept(text);
                     }
 
+                    @Override
+                    public void onClosing(WebSocket webSocket, int code, String reason) {
+                        // nothing can be sent anymore
+                        connectionChanged(current, false);
+                        webSocket.close(code, null);
+                    }
+
                     @Override
                     public void onClosed(WebSocket webSocket, int code, String reason) {
                         log.warn("WebSocket closed {} {}", code, reason);
                         onClose.run();
+                        connectionLost(current, new IOException(String.format("WebSocket closed %d %s", code, reason)));
                     }
 
                     @Override
                     public void onFailure(WebSocket webSocket, Throwable t, @Nullable okhttp3.Response response) {
                         log.error("WebSocket error", t);
                         onError.accept(t);
+                        connectionLost(current, t);
+                    }
+                });
+    }
+
+    /**
+     * Fail the requests waiting on the lost connection and schedule a reconnect, subscription ids
+     * are only valid on the connection that created them
+     */
+    private void connectionLost(long lost, Throwable cause) {
+        if (lost != connection.get()) {
+            return;
+        }
+        connectionChanged(lost, false);
+        reconnecting = !closed && autoReconnect;
+        subscriptionForId.clear();
+        activeSubscriptions.forEach(subscription -> subscription.setSubscriptionId(null));
+        for (Long requestId : requestForId.keySet()) {
+            closeRequest(requestId, new WebSocketClosedException("WebSocket connection lost", cause));
+        }
+        if (!closed && autoReconnect) {
+            execute(this::scheduleReconnect);
+        }
+    }
+
+    private void connectionChanged(long changed, boolean connected) {
+        if (changed != connection.get()) {
+            return;
+        }
+        this.connected = connected;
+        ConnectionListener listener = connectionListener;
+        if (listener != null) {
+            execute(() -> listener.onConnectionChanged(this, connected));
+        }
+    }
+
+    private static ScheduledExecutorService newExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("vitej-ws-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Run a task on the service executor, or on the calling thread once the service is closed
+     */
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private void scheduleReconnect() {
+        int attempt = Math.min(reconnectAttempts++, 30);
+        long delay = Math.min(reconnectMaxDelayMillis, reconnectInitialDelayMillis << attempt);
+        if (delay <= 0) {
+            delay = reconnectMaxDelayMillis;
+        }
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        log.info("Reconnecting WebSocket to {} in {} ms", url, delay);
+        executor.schedule(() -> {
+            if (!closed) {
+                open(true);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void resubscribe(WebSocketSubscription<?> subscription) {
+        if (subscription.getSubscriptionId() != null) {
+            // subscribed on the new connection already
+            return;
+        }
+        Request<?, ?> original = subscription.getRequest();
+        Request<?, SubscribeResponse> request = new Request<>(
+                original.getMethod(), original.getParams(), this, SubscribeResponse.class);
+        long lastHeight = subscription.holdEvents();
+        subscriptionRequestForId.put(request.getId(), subscription);
+        sendAsync(request, SubscribeResponse.class).whenComplete((reply, t) -> {
+            if (t != null) {
+                // the connection was lost again, the next reconnect retries
+                subscriptionRequestForId.remove(request.getId());
+                subscription.releaseEvents();
+            } else if (lastHeight > 0 && !reply.hasError()) {
+                backfill(subscription, lastHeight + 1).whenComplete((v, e) -> {
+                    if (e != null) {
+                        log.error("Failed to backfill snapshot blocks after height {}", lastHeight, e);
                     }
+                    subscription.releaseEvents();
                 });
+            } else {
+                subscription.releaseEvents();
+            }
+        });
+    }
+
+    private CompletableFuture<Void> backfill(WebSocketSubscription<?> subscription, long fromHeight) {
+        Request<?, SnapshotChainHeightResponse> request = new Request<>(
+                "ledger_getSnapshotChainHeight", Collections.emptyList(), this, SnapshotChainHeightResponse.class);
+        return sendAsync(request, SnapshotChainHeightResponse.class)
+                .thenCompose(response -> backfill(subscription, fromHeight, response.getHeight()));
+    }
+
+    private CompletableFuture<Void> backfill(WebSocketSubscription<?> subscription, long fromHeight, Long toHeight) {
+        if (toHeight == null || fromHeight > toHeight) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long pageEnd = Math.min(toHeight, fromHeight + BACKFILL_PAGE_SIZE - 1);
+        Request<?, SnapshotBlocksResponse> request = new Request<>(
+                "ledger_getSnapshotBlocks", Arrays.asList(String.valueOf(pageEnd), (int) (pageEnd - fromHeight + 1)),
+                this, SnapshotBlocksResponse.class);
+        return sendAsync(request, SnapshotBlocksResponse.class).thenCompose(response -> {
+            if (response.hasError()) {
+                throw new CompletionException(new IOException(response.getError().getMessage()));
+            }
+            List<SnapshotBlock> blocks = new ArrayList<>(response.getResult());
+            // blocks are returned from the highest height down
+            blocks.sort(Comparator.comparing(SnapshotBlock::getHeight));
+            for (SnapshotBlock block : blocks) {
+                publishBackfilled(subscription, block);
+            }
+            return backfill(subscription, pageEnd + 1, toHeight);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void publishBackfilled(WebSocketSubscription<T> subscription, SnapshotBlock block) {
+        ObjectNode notification = objectMapper.createObjectNode();
+        notification.put("jsonrpc", "2.0");
+        notification.put("method", "subscribe_subscription");
+        ObjectNode params = notification.putObject("params");
+        params.put("subscription", subscription.getSubscriptionId());
+        params.putArray("result").addObject()
+                .put("hash", block.getHashRaw())
+                .put("height", String.valueOf(block.getHeight()))
+                .put("removed", false);
+        subscription.publishBackfilled(objectMapper.convertValue(notification, subscription.getResponseType()));
     }
 
     public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
         try {
             return sendAsync(request, responseType).get();
         } catch (InterruptedException e) {
-            Thread.interrupted();
+            Thread.currentThread().interrupt();
             throw new IOException("Interrupted WebSocket request", e);
         } catch (ExecutionException e) {
             if (e.getCause() instanceof IOException) {
@@ -103,18 +414,48 @@ public class WebSocketService implements RpcService {
         }
     }
 
+    /**
+     * Cancelling the returned future forgets the pending request, a late reply is dropped.
+     */
     public <T extends Response> CompletableFuture<T> sendAsync(
             Request request, Class<T> responseType) {
         CompletableFuture<T> result = new CompletableFuture<>();
+        RpcCall call = RpcCall.start(metricsListener, request);
+        result.whenComplete((r, t) -> {
+            if (t == null) {
+                call.end(r);
+            } else {
+                call.fail(t);
+            }
+        });
         long requestId = request.getId();
-        requestForId.put(requestId, new WebSocketRequest<>(result, responseType));
+        long timeoutNanos = request.hasDeadline() ? request.getRemainingNanos() : requestTimeoutNanos;
+        if (timeoutNanos <= 0) {
+            result.completeExceptionally(new InterruptedIOException(String.format("Request %d exceeded its deadline", requestId)));
+            return result;
+        }
+        requestForId.put(requestId, new WebSocketRequest<>(result, responseType, call));
         try {
             String payload = objectMapper.writeValueAsString(request);
-            ws.send(payload);
+            if (call.isEnabled()) {
+                call.addRequestBytes(Utf8.encodedLength(payload));
+            }
+            WebSocket socket = ws;
+            if (socket == null || !socket.send(payload)) {
+                closeRequest(requestId, new WebSocketClosedException("WebSocket is not connected"));
+                return result;
+            }
 
-            executor.schedule(
-                    () -> closeRequest(requestId, new IOException(String.format("Request %d timed out", requestId))),
-                    REQUEST_TIMEOUT, TimeUnit.SECONDS);
+            // cancelled as soon as the reply completes the request
+            HashedWheelTimer.Timeout timeout = TIMER.newTimeout(() -> execute(
+                    () -> closeRequest(requestId, new InterruptedIOException(String.format("Request %d timed out", requestId)))),
+                    timeoutNanos, TimeUnit.NANOSECONDS);
+            result.whenComplete((r, t) -> {
+                timeout.cancel();
+                if (result.isCancelled()) {
+                    requestForId.remove(requestId);
+                }
+            });
         } catch (IOException e) {
             closeRequest(requestId, e);
         }
@@ -122,25 +463,125 @@ public class WebSocketService implements RpcService {
         return result;
     }
 
+    /**
+     * Requests are pipelined over the open socket one by one, a WebSocket round-trip does not
+     * cost a new connection so there is nothing to gain from framing them as one JSON array.
+     */
+    public List<Response<?>> sendBatch(List<Request<?, ?>> requests) throws IOException {
+        try {
+            return sendBatchAsync(requests).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted WebSocket request", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Unexpected exception", e.getCause());
+        }
+    }
+
     public <T extends Notification<?>> Flowable<T> subscribe(Request request) {
-        BehaviorSubject<T> subject = BehaviorSubject.create();
-        subscriptionRequestForId.put(request.getId(), new WebSocketSubscription<>(subject, request.getResponseType()));
+        return subscribe(request, backpressure);
+    }
+
+    /**
+     * Identical subscriptions, same method and params, share one subscription on the node. Its
+     * events are fanned out to every local subscriber, and subscribe_unsubscribe is sent once all
+     * of them have cancelled. The node is subscribed when the Flowable is subscribed to, a Flowable
+     * that is never subscribed to costs nothing, and every subscriber of it counts on its own.
+     * A subscriber joining a shared subscription receives the events from then on.
+     *
+     * @param request      subscribe_subscribe request
+     * @param backpressure How events are buffered for a slow subscriber
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Notification<?>> Flowable<T> subscribe(Request request, SubscriptionBackpressure backpressure) {
+        String key = ProtocolHelper.requestKey(request);
+        return Flowable.defer(() -> {
+            WebSocketSubscription<T> subscription;
+            boolean created;
+            synchronized (subscriptionForKey) {
+                subscription = (WebSocketSubscription<T>) subscriptionForKey.get(key);
+                if (subscription == null) {
+                    subscription = new WebSocketSubscription<>(PublishSubject.create(), request.getResponseType(), request);
+                    subscription.setDispatcher(dispatchExecutor, backpressure);
+                    subscriptionForKey.put(key, subscription);
+                    activeSubscriptions.add(subscription);
+                }
+                created = subscription.retain() == 1;
+            }
+            WebSocketSubscription<T> shared = subscription;
+            Flowable<T> events = backpressure.apply(shared.getSubject(), shared.getStats());
+            if (created) {
+                // ask the node once the first subscriber listens, so no early event is missed
+                events = events.mergeWith(Completable.fromAction(() -> start(shared)));
+            }
+            return events.doFinally(() -> release(shared));
+        });
+    }
+
+    /**
+     * Subscribe on the node. While the connection is being reconnected, or when it is lost before
+     * the reply, the subscription waits for the resubscribe after the reconnect like the others.
+     */
+    private void start(WebSocketSubscription<?> subscription) {
+        if (reconnecting) {
+            return;
+        }
+        Request<?, ?> original = subscription.getRequest();
+        Request<?, SubscribeResponse> request = new Request<>(
+                original.getMethod(), original.getParams(), this, SubscribeResponse.class);
+        subscriptionRequestForId.put(request.getId(), subscription);
         try {
             send(request, SubscribeResponse.class);
-        } catch (IOException e) {
-            log.error("Failed to subscribe to RPC events with request id {}", request.getId());
-            subject.onError(e);
+        } catch (IOException | RuntimeException e) {
+            subscriptionRequestForId.remove(request.getId());
+            if (e instanceof WebSocketClosedException && reconnecting) {
+                log.info("Connection lost while subscribing with request id {}, subscribing after the reconnect", request.getId());
+            } else {
+                log.error("Failed to subscribe to RPC events with request id {}", request.getId());
+                closeSubscription(subscription, e);
+            }
+        }
+    }
+
+
+    private void release(WebSocketSubscription<?> subscription) {
+        synchronized (subscriptionForKey) {
+            if (subscription.release() > 0) {
+                return;
+            }
+            subscriptionForKey.remove(ProtocolHelper.requestKey(subscription.getRequest()), subscription);
+        }
+        activeSubscriptions.remove(subscription);
+        String subscriptionId = subscription.getSubscriptionId();
+        if (subscriptionId != null) {
+            subscriptionForId.remove(subscriptionId);
+            unsubscribe(subscriptionId);
         }
+    }
 
-        return subject.doOnDispose(() -> {
-            String subscriptionId = getSubscriptionId(subject);
-            if (subscriptionId != null) {
-                subscriptionForId.remove(subscriptionId);
+    private void closeSubscription(WebSocketSubscription<?> subscription, Throwable error) {
+        synchronized (subscriptionForKey) {
+            subscriptionForKey.remove(ProtocolHelper.requestKey(subscription.getRequest()), subscription);
+        }
+        activeSubscriptions.remove(subscription);
+        subscription.getSubject().onError(error);
+    }
+
+    private void unsubscribe(String subscriptionId) {
+        Request<?, EmptyResponse> request = new Request<>(
+                "subscribe_unsubscribe", Collections.singletonList(subscriptionId), this, EmptyResponse.class);
+        sendAsync(request, EmptyResponse.class).whenComplete((reply, t) -> {
+            if (t != null) {
+                log.debug("Failed to unsubscribe {}", subscriptionId, t);
             }
-        }).toFlowable(BackpressureStrategy.BUFFER);
+        });
     }
 
     public void close() {
+        closed = true;
         if (ws != null) {
             try {
                 ws.close(1000, "WebSocket closed");
@@ -148,44 +589,21 @@ public class WebSocketService implements RpcService {
                 log.error("Close WebSocket failed", e);
             }
         }
+        executor.shutdownNow();
     }
 
+    /**
+     * The message is parsed once: the routing fields are read from its start and the message is
+     * bound straight to the response or notification type of its request or subscription.
+     * Notifications are handed to subscribers on the dispatch executor.
+     */
     private void onWebSocketMessage(String messageStr) throws IOException {
-        try {
-            JsonNode replyJson = objectMapper.readTree(messageStr);
-            if (isReply(replyJson)) {
-                long replyId = getReplyId(replyJson);
-                WebSocketRequest request = requestForId.remove(replyId);
-                if (request == null) {
-                    log.error("Received reply for unexpected request id: {}", replyId);
-                    return;
-                }
-                try {
-                    Object reply = objectMapper.convertValue(replyJson, request.getResponseType());
-                    if (reply instanceof SubscribeResponse) {
-                        WebSocketSubscription subscription = subscriptionRequestForId.get(replyId);
-                        SubscribeResponse subscriptionReply = (SubscribeResponse) reply;
-                        if (!subscriptionReply.hasError()) {
-                            subscriptionForId.put(subscriptionReply.getSubscriptionId(), new WebSocketSubscription<>(subscription.getSubject(), subscription.getResponseType()));
-                        } else {
-                            Response.Error error = subscriptionReply.getError();
-                            log.error("Subscription request returned error: {}", error.getMessage());
-                            subscription.getSubject().onError(new IOException(String.format("Subscription request failed with error: %s", error.getMessage())));
-                        }
-                    }
-                    request.getOnReply().complete(reply);
-                } catch (IllegalArgumentException e) {
-                    request.getOnReply().completeExceptionally(new IOException(String.format("Failed to parse '%s' as type %s", messageStr, request.getResponseType()), e));
-                }
-            } else if (isSubscriptionEvent(replyJson)) {
-                String subscriptionId = extractSubscriptionId(replyJson);
-                WebSocketSubscription subscription = subscriptionForId.get(subscriptionId);
-                if (subscription != null) {
-                    Object event = objectMapper.convertValue(replyJson, subscription.getResponseType());
-                    subscription.getSubject().onNext(event);
-                } else {
-                    log.warn("No subscriber for WebSocket event with subscription id {}", subscriptionId);
-                }
+        try (JsonParser parser = objectMapper.getFactory().createParser(messageStr)) {
+            WebSocketMessageHead head = WebSocketMessageHead.read(parser);
+            if (head.isReply()) {
+                onReply(head, messageStr);
+            } else if (head.isNotification()) {
+                onNotification(head);
             } else {
                 throw new IOException("Unknown message type");
             }
@@ -194,6 +612,53 @@ public class WebSocketService implements RpcService {
         }
     }
 
+    private void onReply(WebSocketMessageHead head, String messageStr) {
+        long replyId = head.getId();
+        WebSocketRequest request = requestForId.remove(replyId);
+        if (request == null) {
+            log.error("Received reply for unexpected request id: {}", replyId);
+            return;
+        }
+        if (request.getCall().isEnabled()) {
+            request.getCall().addResponseBytes(Utf8.encodedLength(messageStr));
+        }
+        Object reply;
+        try {
+            reply = objectMapper.readerFor(request.getResponseType()).readValue(head.message());
+        } catch (IOException e) {
+            request.getOnReply().completeExceptionally(new IOException(String.format("Failed to parse '%s' as type %s", messageStr, request.getResponseType()), e));
+            return;
+        }
+        WebSocketSubscription subscription = subscriptionRequestForId.remove(replyId);
+        if (reply instanceof SubscribeResponse && subscription != null) {
+            SubscribeResponse subscriptionReply = (SubscribeResponse) reply;
+            if (subscriptionReply.hasError()) {
+                Response.Error error = subscriptionReply.getError();
+                log.error("Subscription request returned error: {}", error.getMessage());
+                closeSubscription(subscription, new IOException(String.format("Subscription request failed with error: %s", error.getMessage())));
+            } else if (activeSubscriptions.contains(subscription) && subscription.getSubscriptionId() == null) {
+                subscription.setSubscriptionId(subscriptionReply.getSubscriptionId());
+                subscriptionForId.put(subscriptionReply.getSubscriptionId(), subscription);
+            } else {
+                // disposed while the subscribe request was pending, or subscribed twice on this connection
+                unsubscribe(subscriptionReply.getSubscriptionId());
+            }
+        }
+        request.getOnReply().complete(reply);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onNotification(WebSocketMessageHead head) throws IOException {
+        String subscriptionId = head.getSubscription();
+        WebSocketSubscription subscription = subscriptionId != null ? subscriptionForId.get(subscriptionId) : null;
+        if (subscription == null) {
+            log.warn("No subscriber for WebSocket event with subscription id {}", subscriptionId);
+            return;
+        }
+        Object event = objectMapper.readerFor(subscription.getResponseType()).readValue(head.message());
+        subscription.dispatch(event);
+    }
+
     private void closeRequest(long requestId, Exception e) {
         if (requestForId.containsKey(requestId)) {
             CompletableFuture result = requestForId.get(requestId).getOnReply();
@@ -202,37 +667,10 @@ public class WebSocketService implements RpcService {
         }
     }
 
-    private <T extends Notification<?>> String getSubscriptionId(BehaviorSubject<T> subject) {
-        return subscriptionForId.entrySet().stream()
-                .filter(entry -> entry.getValue().getSubject() == subject)
-                .map(Map.Entry::getKey)
-                .findFirst()
-                .orElse(null);
-    }
-
-    private String extractSubscriptionId(JsonNode replyJson) {
-        return replyJson.get("params").get("subscription").asText();
-    }
-
-    private boolean isSubscriptionEvent(JsonNode replyJson) {
-        return replyJson.has("method");
-    }
-
-    private boolean isReply(JsonNode replyJson) {
-        return replyJson.has("id");
-    }
-
-    private long getReplyId(JsonNode replyJson) throws IOException {
-        JsonNode idField = replyJson.get("id");
-        if (idField == null) {
-            throw new IOException("'id' field is missing in the reply");
-        }
-
-        if (!idField.isIntegralNumber()) {
-            throw new IOException(
-                    String.format("'id' expected to be long, but it is: '%s'", idField.asText()));
-        }
-
-        return idField.longValue();
+    public interface ConnectionListener {
+        /**
+         * Called on the service executor, in the order the changes happen
+         */
+        void onConnectionChanged(WebSocketService service, boolean connected);
     }
 }
@@ -12,33 +12,245 @@
  */
 package org.vitej.core.protocol.websocket;
 
-import io.reactivex.subjects.BehaviorSubject;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.reactivex.exceptions.MissingBackpressureException;
+import io.reactivex.subjects.Subject;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.SnapshotBlockNotification;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Objects necessary to process a new item received via a WebSocket subscription.
+ * The subscription outlives the WebSocket connection: after a reconnect the original request is
+ * sent again and the new subscription id is mapped onto the same subject.
  *
  * @param <T> type of a data item that should be returned by a WebSocket subscription.
  */
 public class WebSocketSubscription<T> {
-    private BehaviorSubject<T> subject;
+    private Subject<T> subject;
     private Class<T> responseType;
+    private Request<?, ?> request;
+    private final SubscriptionStats stats = new SubscriptionStats();
+    private volatile String subscriptionId;
+    private Executor dispatcher = MoreExecutors.directExecutor();
+    private SubscriptionBackpressure backpressure = SubscriptionBackpressure.DEFAULT;
+    private final Deque<T> pending = new ArrayDeque<>();
+    private boolean draining;
+    private int refCount;
+
+    private long lastSnapshotHeight;
+    private List<T> heldEvents;
+
+    /**
+     * Creates WebSocketSubscription.
+     *
+     * @param subject used to send new data items to listeners
+     * @param responseType type of a data item returned by a WebSocket subscription
+     */
+    public WebSocketSubscription(Subject<T> subject, Class<T> responseType) {
+        this(subject, responseType, null);
+    }
 
     /**
      * Creates WebSocketSubscription.
      *
      * @param subject used to send new data items to listeners
      * @param responseType type of a data item returned by a WebSocket subscription
+     * @param request subscribe request, sent again to resubscribe after a reconnect
      */
-    public WebSocketSubscription(BehaviorSubject<T> subject, Class<T> responseType) {
+    public WebSocketSubscription(Subject<T> subject, Class<T> responseType, Request<?, ?> request) {
         this.subject = subject;
         this.responseType = responseType;
+        this.request = request;
     }
 
-    public BehaviorSubject<T> getSubject() {
+    public Subject<T> getSubject() {
         return subject;
     }
 
     public Class<T> getResponseType() {
         return responseType;
     }
+
+    public Request<?, ?> getRequest() {
+        return request;
+    }
+
+    /**
+     * @return Queue depth and dropped count of the events of this subscription
+     */
+    public SubscriptionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return Subscription id assigned by the node on the current connection, null before the reply
+     */
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    void setSubscriptionId(String subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    /**
+     * Count one more local subscriber, guarded by the service
+     */
+    int retain() {
+        return ++refCount;
+    }
+
+    int release() {
+        return --refCount;
+    }
+
+    /**
+     * @param dispatcher   Executor events are published on
+     * @param backpressure Bounds the events waiting for the dispatcher, e.g. behind a subscriber
+     *                     that blocks the dispatcher thread
+     */
+    void setDispatcher(Executor dispatcher, SubscriptionBackpressure backpressure) {
+        this.dispatcher = dispatcher;
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * Publish a live event on the dispatcher, events are published one at a time in the order
+     * they are dispatched. At most the backpressure capacity of events wait for the dispatcher,
+     * beyond it the oldest is dropped, or the subject fails for {@link SubscriptionBackpressure#error}.
+     */
+    void dispatch(T event) {
+        boolean overflow = false;
+        boolean drain;
+        synchronized (pending) {
+            if (pending.size() >= backpressure.getCapacity()) {
+                if (backpressure.getStrategy() == SubscriptionBackpressure.Strategy.ERROR) {
+                    pending.clear();
+                    overflow = true;
+                } else {
+                    pending.poll();
+                    stats.received();
+                    stats.dropped();
+                }
+            }
+            if (!overflow) {
+                pending.add(event);
+            }
+            drain = !overflow && !draining;
+            draining |= drain;
+        }
+        if (overflow) {
+            fail(new MissingBackpressureException("Subscription events arrive faster than they are dispatched"));
+            return;
+        }
+        if (drain) {
+            try {
+                dispatcher.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                synchronized (pending) {
+                    pending.clear();
+                    draining = false;
+                }
+                fail(e);
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            T event;
+            synchronized (pending) {
+                event = pending.poll();
+                if (event == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            publish(event);
+        }
+    }
+
+    private synchronized void fail(Throwable error) {
+        subject.onError(error);
+    }
+
+    boolean isSnapshotSubscription() {
+        return SnapshotBlockNotification.class.isAssignableFrom(responseType);
+    }
+
+    /**
+     * Hand over a live event, it waits while missed snapshot blocks are backfilled
+     */
+    synchronized void publish(T event) {
+        if (heldEvents != null) {
+            heldEvents.add(event);
+        } else {
+            emit(event);
+        }
+    }
+
+    /**
+     * Hold back live events until {@link #releaseEvents()}, so backfilled blocks come first
+     *
+     * @return Last snapshot height delivered, 0 if nothing needs to be backfilled
+     */
+    synchronized long holdEvents() {
+        if (!isSnapshotSubscription() || lastSnapshotHeight == 0) {
+            return 0;
+        }
+        if (heldEvents == null) {
+            heldEvents = new ArrayList<>();
+        }
+        return lastSnapshotHeight;
+    }
+
+    synchronized void publishBackfilled(T event) {
+        emit(event);
+    }
+
+    synchronized void releaseEvents() {
+        List<T> events = heldEvents;
+        heldEvents = null;
+        if (events != null) {
+            events.forEach(this::emit);
+        }
+    }
+
+    private void emit(T event) {
+        if (event instanceof SnapshotBlockNotification && !advance((SnapshotBlockNotification) event)) {
+            return;
+        }
+        subject.onNext(event);
+    }
+
+    /**
+     * Backfilled and live snapshot blocks may overlap, drop notifications of heights already delivered
+     */
+    private boolean advance(SnapshotBlockNotification event) {
+        if (event.getParams() == null || event.getParams().getResult() == null) {
+            return true;
+        }
+        boolean fresh = false;
+        for (SnapshotBlockNotification.Result result : event.getParams().getResult()) {
+            Long height = result.getHeight();
+            if (height == null) {
+                fresh = true;
+            } else if (Boolean.TRUE.equals(result.getRemoved())) {
+                // rolled back, the height is produced again
+                lastSnapshotHeight = Math.min(lastSnapshotHeight, height - 1);
+                fresh = true;
+            } else if (height > lastSnapshotHeight) {
+                lastSnapshotHeight = height;
+                fresh = true;
+            }
+        }
+        return fresh;
+    }
 }
@@ -0,0 +1,71 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.protocol.Async;
+import org.vitej.core.protocol.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncTest {
+    @Test
+    public void testDefaultExecutorServiceIsOwnedByTheCaller() throws Exception {
+        ScheduledExecutorService first = Async.defaultExecutorService();
+        ScheduledExecutorService second = Async.defaultExecutorService();
+        Assert.assertNotSame(first, second);
+
+        first.shutdown();
+        Assert.assertTrue(first.awaitTermination(1, TimeUnit.SECONDS));
+        Assert.assertEquals("1", second.schedule(() -> "1", 1, TimeUnit.MILLISECONDS).get(1, TimeUnit.SECONDS));
+        second.shutdownNow();
+    }
+
+    @Test
+    public void testSendAsyncRunsOnConfiguredExecutor() throws Exception {
+        Service service = new Service() {
+            @Override
+            protected InputStream performIO(String payload) {
+                String reply = "{\"jsonrpc\":\"2.0\",\"id\":0,\"result\":\"1\"}";
+                return new ByteArrayInputStream(reply.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        AtomicInteger executed = new AtomicInteger();
+        service.setExecutor(command -> {
+            executed.incrementAndGet();
+            new Thread(command).start();
+        });
+
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).sendAsync().get(1, TimeUnit.SECONDS).getHeight());
+        Assert.assertEquals(1, executed.get());
+    }
+
+    @Test
+    public void testVirtualThreadExecutorOrFallback() throws Exception {
+        if (!Async.isVirtualThreadSupported()) {
+            // JDK 8 to 20: the executor is looked up reflectively and is missing
+            try {
+                Async.newVirtualThreadPerTaskExecutor();
+                Assert.fail();
+            } catch (UnsupportedOperationException e) {
+                Assert.assertTrue(e.getMessage().contains(System.getProperty("java.version")));
+            }
+            return;
+        }
+        ExecutorService executor = Async.newVirtualThreadPerTaskExecutor();
+        try {
+            Assert.assertEquals("1", executor.submit(() -> "1").get(1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
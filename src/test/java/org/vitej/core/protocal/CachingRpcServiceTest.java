@@ -0,0 +1,88 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.protocol.CachingRpcService;
+import org.vitej.core.protocol.Service;
+import org.vitej.core.protocol.Vitej;
+import org.vitej.core.protocol.methods.Hash;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.AccountBlockResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class CachingRpcServiceTest {
+    private static final Hash HASH = new Hash("0000000000000000000000000000000000000000000000000000000000000001");
+
+    private static class CountingService extends Service {
+        private String result;
+        private int calls;
+
+        @Override
+        protected InputStream performIO(String payload) {
+            calls++;
+            String reply = "{\"jsonrpc\":\"2.0\",\"id\":0,\"result\":" + result + "}";
+            return new ByteArrayInputStream(reply.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testOnlySettledBlocksAreCached() throws IOException {
+        CountingService service = new CountingService();
+        CachingRpcService cachingService = new CachingRpcService(service);
+        Vitej vitej = new Vitej(cachingService);
+
+        // a send block that is snapshotted but not yet received may still change
+        service.result = "{\"blockType\":2,\"hash\":\"" + HASH + "\",\"firstSnapshotHash\":\"" + HASH + "\"}";
+        vitej.getAccountBlockByHash(HASH).send();
+        vitej.getAccountBlockByHash(HASH).send();
+        Assert.assertEquals(2, service.calls);
+
+        service.result = "{\"blockType\":2,\"hash\":\"" + HASH + "\",\"firstSnapshotHash\":\"" + HASH + "\",\"receiveBlockHash\":\"" + HASH + "\"}";
+        vitej.getAccountBlockByHash(HASH).send();
+        AccountBlockResponse cached = vitej.getAccountBlockByHash(HASH).send();
+        Assert.assertEquals(3, service.calls);
+        Assert.assertEquals(HASH, cached.getResult().getReceiveBlockHash());
+        Assert.assertEquals(1, cachingService.getStats().get("ledger_getAccountBlockByHash").hitCount());
+    }
+
+    @Test
+    public void testCachedBlocksHaveNoStaleConfirmations() throws IOException {
+        CountingService service = new CountingService();
+        Vitej vitej = new Vitej(new CachingRpcService(service));
+        service.result = "{\"blockType\":4,\"hash\":\"" + HASH + "\",\"firstSnapshotHash\":\"" + HASH + "\",\"confirmations\":\"5\"}";
+
+        AccountBlockResponse fetched = vitej.getAccountBlockByHash(HASH).send();
+        AccountBlockResponse cached = vitej.getAccountBlockByHash(HASH).send();
+        Assert.assertEquals(1, service.calls);
+        Assert.assertEquals(Long.valueOf(5), fetched.getResult().getConfirmations());
+        Assert.assertNull(cached.getResult().getConfirmations());
+        Assert.assertEquals(HASH, cached.getResult().getFirstSnapshotHash());
+    }
+
+    @Test
+    public void testEveryHitIsItsOwnCopy() throws IOException {
+        CountingService service = new CountingService();
+        Vitej vitej = new Vitej(new CachingRpcService(service));
+        service.result = "{\"blockType\":4,\"hash\":\"" + HASH + "\",\"firstSnapshotHash\":\"" + HASH + "\"}";
+
+        AccountBlockResponse fetched = vitej.getAccountBlockByHash(HASH).send();
+        fetched.getResult().setHeight("99");
+        Request<?, AccountBlockResponse> request = vitej.getAccountBlockByHash(HASH);
+        AccountBlockResponse first = request.send();
+        AccountBlockResponse second = vitej.getAccountBlockByHash(HASH).send();
+        Assert.assertEquals(1, service.calls);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(request.getId(), first.getId());
+        Assert.assertNull(first.getResult().getHeightRaw());
+        first.getResult().setHeight("99");
+        Assert.assertNull(second.getResult().getHeightRaw());
+    }
+}
@@ -0,0 +1,158 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.exception.CircuitOpenException;
+import org.vitej.core.exception.ConnectionException;
+import org.vitej.core.protocol.CircuitBreakerRpcService;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CircuitBreakerRpcServiceTest {
+    private static final long OPEN_MILLIS = 50;
+
+    /**
+     * Opens after 2 failures out of 2 calls, lets one trial call through after 50 ms
+     */
+    private static CircuitBreakerRpcService breaker(StubRpcService stub) {
+        return new CircuitBreakerRpcService(stub, 2, 2, 0.5, 1, 60_000, OPEN_MILLIS, 1, TimeUnit.MILLISECONDS);
+    }
+
+    private static StubRpcService failing() {
+        return new StubRpcService(request -> StubRpcService.failed(new IOException("refused")));
+    }
+
+    private static void trip(CircuitBreakerRpcService breaker) {
+        for (int i = 0; i < 2; i++) {
+            try {
+                StubRpcService.heightRequest(breaker).send();
+                Assert.fail();
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(CircuitBreakerRpcService.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOpenBreakerRejectsAndClosesAfterSuccessfulTrial() throws Exception {
+        StubRpcService stub = failing();
+        CircuitBreakerRpcService breaker = breaker(stub);
+        List<CircuitBreakerRpcService.StateTransition> transitions = new ArrayList<>();
+        breaker.stateTransitions().subscribe(transitions::add);
+        trip(breaker);
+
+        try {
+            StubRpcService.heightRequest(breaker).send();
+            Assert.fail();
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        try {
+            StubRpcService.heightRequest(breaker).sendAsync().get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof CircuitOpenException);
+        }
+        Assert.assertEquals(2, stub.requests.size());
+
+        Thread.sleep(OPEN_MILLIS + 10);
+        stub.setHandler(request -> CompletableFuture.completedFuture(StubRpcService.reply(request, "1")));
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(breaker).send().getHeight());
+        Assert.assertEquals(CircuitBreakerRpcService.State.CLOSED, breaker.getState());
+        Assert.assertEquals(3, transitions.size());
+        Assert.assertEquals(CircuitBreakerRpcService.State.HALF_OPEN, transitions.get(1).getTo());
+    }
+
+    @Test
+    public void testFailedTrialOpensAgain() throws Exception {
+        StubRpcService stub = failing();
+        CircuitBreakerRpcService breaker = breaker(stub);
+        trip(breaker);
+
+        Thread.sleep(OPEN_MILLIS + 10);
+        try {
+            StubRpcService.heightRequest(breaker).send();
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(CircuitBreakerRpcService.State.OPEN, breaker.getState());
+        Assert.assertEquals(3, stub.requests.size());
+    }
+
+    @Test
+    public void testHalfOpenRejectsBeyondTrialCalls() throws Exception {
+        CompletableFuture<Response<?>> trial = new CompletableFuture<>();
+        StubRpcService stub = failing();
+        CircuitBreakerRpcService breaker = breaker(stub);
+        trip(breaker);
+
+        Thread.sleep(OPEN_MILLIS + 10);
+        stub.setHandler(request -> trial);
+        CompletableFuture<SnapshotChainHeightResponse> first = StubRpcService.heightRequest(breaker).sendAsync();
+        Assert.assertEquals(CircuitBreakerRpcService.State.HALF_OPEN, breaker.getState());
+        try {
+            StubRpcService.heightRequest(breaker).send();
+            Assert.fail();
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+
+        trial.complete(StubRpcService.reply(stub.requests.get(2), "1"));
+        first.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(CircuitBreakerRpcService.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testSynchronousFailureOfTrialIsRecorded() throws Exception {
+        StubRpcService stub = failing();
+        CircuitBreakerRpcService breaker = breaker(stub);
+        trip(breaker);
+
+        Thread.sleep(OPEN_MILLIS + 10);
+        stub.setHandler(request -> {
+            throw new ConnectionException("unavailable", 503);
+        });
+        try {
+            StubRpcService.heightRequest(breaker).sendAsync().get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ConnectionException);
+        }
+        // the trial permit is not lost, the breaker opens again and later lets another trial through
+        Assert.assertEquals(CircuitBreakerRpcService.State.OPEN, breaker.getState());
+        Thread.sleep(OPEN_MILLIS + 10);
+        stub.setHandler(request -> CompletableFuture.completedFuture(StubRpcService.reply(request, "1")));
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(breaker).send().getHeight());
+        Assert.assertEquals(CircuitBreakerRpcService.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testCallsOfAnEarlierStateAreNotTrialResults() throws Exception {
+        CompletableFuture<Response<?>> slow = new CompletableFuture<>();
+        CompletableFuture<Response<?>> trial = new CompletableFuture<>();
+        StubRpcService stub = new StubRpcService(request -> slow);
+        CircuitBreakerRpcService breaker = breaker(stub);
+        StubRpcService.heightRequest(breaker).sendAsync();
+        stub.setHandler(request -> StubRpcService.failed(new IOException("refused")));
+        trip(breaker);
+
+        Thread.sleep(OPEN_MILLIS + 10);
+        stub.setHandler(request -> trial);
+        StubRpcService.heightRequest(breaker).sendAsync();
+        // admitted while closed, its failure does not decide the trial
+        slow.completeExceptionally(new IOException("refused"));
+        Assert.assertEquals(CircuitBreakerRpcService.State.HALF_OPEN, breaker.getState());
+
+        trial.complete(StubRpcService.reply(stub.requests.get(3), "1"));
+        Assert.assertEquals(CircuitBreakerRpcService.State.CLOSED, breaker.getState());
+    }
+}
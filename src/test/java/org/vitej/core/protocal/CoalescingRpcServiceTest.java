@@ -0,0 +1,63 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.protocol.CoalescingRpcService;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class CoalescingRpcServiceTest {
+    @Test
+    public void testRequestsWithinWindowAreBatched() throws Exception {
+        StubRpcService stub = StubRpcService.replying();
+        CoalescingRpcService service = new CoalescingRpcService(stub, 50, TimeUnit.MILLISECONDS, 100);
+
+        CompletableFuture<SnapshotChainHeightResponse> first = StubRpcService.heightRequest(service).sendAsync();
+        CompletableFuture<SnapshotChainHeightResponse> second = StubRpcService.heightRequest(service).sendAsync();
+        Assert.assertEquals(Long.valueOf(1), first.get(1, TimeUnit.SECONDS).getHeight());
+        Assert.assertEquals(Long.valueOf(1), second.get(1, TimeUnit.SECONDS).getHeight());
+        Assert.assertEquals(1, stub.batches.size());
+        Assert.assertEquals(2, stub.batches.get(0).size());
+        service.close();
+    }
+
+    @Test
+    public void testRequestsWithDeadlineAreNotBatched() throws Exception {
+        StubRpcService stub = StubRpcService.replying();
+        CoalescingRpcService service = new CoalescingRpcService(stub, 50, TimeUnit.MILLISECONDS, 100);
+
+        CompletableFuture<SnapshotChainHeightResponse> first = StubRpcService.heightRequest(service).sendAsync();
+        CompletableFuture<SnapshotChainHeightResponse> second = StubRpcService.heightRequest(service)
+                .withDeadline(Duration.ofSeconds(1)).sendAsync();
+        CompletableFuture<SnapshotChainHeightResponse> third = StubRpcService.heightRequest(service).sendAsync();
+        // the deadline of one caller must not fail the others in its batch
+        Assert.assertEquals(Long.valueOf(1), second.get(1, TimeUnit.SECONDS).getHeight());
+        Assert.assertFalse(first.isDone());
+        Assert.assertEquals(Long.valueOf(1), first.get(1, TimeUnit.SECONDS).getHeight());
+        Assert.assertEquals(Long.valueOf(1), third.get(1, TimeUnit.SECONDS).getHeight());
+        Assert.assertEquals(1, stub.batches.size());
+        Assert.assertEquals(2, stub.batches.get(0).size());
+        service.close();
+    }
+
+    @Test
+    public void testFlushOnSizeStartsNewWindow() throws Exception {
+        StubRpcService stub = StubRpcService.replying();
+        CoalescingRpcService service = new CoalescingRpcService(stub, 300, TimeUnit.MILLISECONDS, 2);
+
+        StubRpcService.heightRequest(service).sendAsync();
+        StubRpcService.heightRequest(service).sendAsync();
+        Assert.assertEquals(1, stub.batches.size());
+
+        Thread.sleep(150);
+        CompletableFuture<SnapshotChainHeightResponse> third = StubRpcService.heightRequest(service).sendAsync();
+        // the timer of the first window would have fired at 300 ms
+        Thread.sleep(200);
+        Assert.assertFalse(third.isDone());
+        Assert.assertEquals(Long.valueOf(1), third.get(1, TimeUnit.SECONDS).getHeight());
+        service.close();
+    }
+}
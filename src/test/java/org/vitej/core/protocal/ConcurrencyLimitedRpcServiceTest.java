@@ -0,0 +1,181 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.protocol.ConcurrencyLimitedRpcService;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrencyLimitedRpcServiceTest {
+    private static ConcurrencyLimitedRpcService limitedToOne(StubRpcService stub) {
+        return new ConcurrencyLimitedRpcService(stub, 1, 1, 1, 10,
+                ConcurrencyLimitedRpcService.DEFAULT_BACKOFF_RATIO, ConcurrencyLimitedRpcService.DEFAULT_LATENCY_TOLERANCE,
+                ConcurrencyLimitedRpcService.DEFAULT_OVERLOAD_ERROR_CODES);
+    }
+
+    @Test
+    public void testInterruptedWaiterReturnsItsPermit() throws Exception {
+        CompletableFuture<Response<?>> hanging = new CompletableFuture<>();
+        StubRpcService stub = new StubRpcService(request -> hanging);
+        ConcurrencyLimitedRpcService service = limitedToOne(stub);
+        CompletableFuture<SnapshotChainHeightResponse> first = StubRpcService.heightRequest(service).sendAsync();
+
+        CompletableFuture<Throwable> waiterFailure = new CompletableFuture<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                StubRpcService.heightRequest(service).send();
+                waiterFailure.complete(null);
+            } catch (Throwable t) {
+                waiterFailure.complete(t);
+            }
+        });
+        waiter.start();
+        while (service.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        waiter.interrupt();
+        Assert.assertTrue(waiterFailure.get(1, TimeUnit.SECONDS) instanceof IOException);
+        Assert.assertEquals(0, service.getQueued());
+
+        stub.setHandler(request -> CompletableFuture.completedFuture(StubRpcService.reply(request, "1")));
+        hanging.complete(StubRpcService.reply(stub.requests.get(0), "1"));
+        first.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(0, service.getInFlight());
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).send().getHeight());
+    }
+
+    @Test
+    public void testSynchronousDelegateFailureReleasesPermit() throws Exception {
+        ConcurrencyLimitedRpcService service = limitedToOne(new StubRpcService(request -> {
+            throw new IllegalStateException("closed");
+        }));
+        for (int i = 0; i < 3; i++) {
+            try {
+                StubRpcService.heightRequest(service).sendAsync().get(1, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            try {
+                StubRpcService.heightRequest(service).send();
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(0, service.getInFlight());
+    }
+
+    @Test
+    public void testQueuedRequestsHonorDeadline() throws Exception {
+        ConcurrencyLimitedRpcService service = limitedToOne(new StubRpcService(request -> new CompletableFuture<>()));
+        StubRpcService.heightRequest(service).sendAsync();
+
+        long start = System.nanoTime();
+        try {
+            StubRpcService.heightRequest(service).withDeadline(Duration.ofMillis(50)).send();
+            Assert.fail();
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        }
+        try {
+            StubRpcService.heightRequest(service).withDeadline(Duration.ofMillis(50)).sendAsync().get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+        Assert.assertEquals(0, service.getQueued());
+        Assert.assertEquals(1, service.getInFlight());
+    }
+
+    @Test
+    public void testLatencyIsJudgedPerMethod() throws Exception {
+        StubRpcService stub = new StubRpcService(request ->
+                replyAfter(request, "ledger_getAccountBlocksByAddress".equals(request.getMethod()) ? 30 : 5));
+        ConcurrencyLimitedRpcService service = new ConcurrencyLimitedRpcService(stub);
+
+        for (int i = 0; i < 10; i++) {
+            StubRpcService.heightRequest(service).send();
+            new Request<>("ledger_getAccountBlocksByAddress", Collections.emptyList(), service,
+                    SnapshotChainHeightResponse.class).send();
+        }
+        // a slow method is not overload just because another method is fast
+        Assert.assertTrue(service.getLimit() >= ConcurrencyLimitedRpcService.DEFAULT_INITIAL_LIMIT);
+    }
+
+    @Test
+    public void testOverloadBacksOffOncePerRound() throws Exception {
+        List<CompletableFuture<Response<?>>> replies = new ArrayList<>();
+        StubRpcService stub = new StubRpcService(request -> {
+            CompletableFuture<Response<?>> reply = new CompletableFuture<>();
+            replies.add(reply);
+            return reply;
+        });
+        ConcurrencyLimitedRpcService service = new ConcurrencyLimitedRpcService(stub);
+        List<CompletableFuture<SnapshotChainHeightResponse>> round = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            round.add(StubRpcService.heightRequest(service).sendAsync());
+        }
+        for (CompletableFuture<Response<?>> reply : new ArrayList<>(replies)) {
+            reply.completeExceptionally(new IOException("connection reset"));
+        }
+        for (CompletableFuture<SnapshotChainHeightResponse> request : round) {
+            try {
+                request.get(1, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        // ten failures of the same round cut the limit once
+        Assert.assertEquals(18, service.getLimit());
+
+        CompletableFuture<SnapshotChainHeightResponse> next = StubRpcService.heightRequest(service).sendAsync();
+        replies.get(replies.size() - 1).completeExceptionally(new IOException("connection reset"));
+        try {
+            next.get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(16, service.getLimit());
+    }
+
+    @Test
+    public void testServerErrorsAreNotOverload() throws Exception {
+        ConcurrencyLimitedRpcService service = new ConcurrencyLimitedRpcService(new StubRpcService(request -> {
+            Response<?> response = StubRpcService.reply(request, null);
+            Response.Error error = new Response.Error();
+            error.setCode(-32000);
+            error.setMessage("insufficient balance");
+            response.setError(error);
+            return CompletableFuture.completedFuture(response);
+        }));
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(StubRpcService.heightRequest(service).send().hasError());
+        }
+        Assert.assertEquals(ConcurrencyLimitedRpcService.DEFAULT_INITIAL_LIMIT, service.getLimit());
+    }
+
+    private static CompletableFuture<Response<?>> replyAfter(Request<?, ?> request, long millis) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return StubRpcService.reply(request, "1");
+        });
+    }
+}
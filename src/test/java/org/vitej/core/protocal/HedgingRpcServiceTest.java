@@ -0,0 +1,81 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.protocol.HedgingRpcService;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class HedgingRpcServiceTest {
+    private static final Executor DELAYED = runnable -> CompletableFuture.runAsync(() -> {
+        try {
+            Thread.sleep(40);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        runnable.run();
+    });
+
+    @Test
+    public void testLosingPrimariesAreSampled() throws Exception {
+        // every primary hangs, every hedge replies after 40 ms
+        AtomicInteger calls = new AtomicInteger();
+        Function<Request<?, ?>, CompletableFuture<Response<?>>> handler = request ->
+                calls.incrementAndGet() % 2 == 1 ? new CompletableFuture<>()
+                        : CompletableFuture.supplyAsync(() -> StubRpcService.reply(request, "1"), DELAYED);
+        HedgingRpcService service = new HedgingRpcService(
+                Arrays.asList(new StubRpcService(handler), new StubRpcService(handler)),
+                method -> true, 0.5, 10, 1000, TimeUnit.MILLISECONDS);
+        service.setHedgeBudget(1, 100);
+
+        for (int i = 0; i < 20; i++) {
+            StubRpcService.heightRequest(service).sendAsync().get(1, TimeUnit.SECONDS);
+        }
+        // without samples of the losing primaries the delay would stay at its minimum
+        Assert.assertTrue(service.getHedgeDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+
+    @Test
+    public void testHedgesAreLimitedByBudget() throws Exception {
+        Function<Request<?, ?>, CompletableFuture<Response<?>>> handler = request ->
+                CompletableFuture.supplyAsync(() -> StubRpcService.reply(request, "1"), DELAYED);
+        StubRpcService first = new StubRpcService(handler);
+        StubRpcService second = new StubRpcService(handler);
+        HedgingRpcService service = new HedgingRpcService(Arrays.asList(first, second),
+                method -> true, 0.95, 10, 10, TimeUnit.MILLISECONDS);
+        service.setHedgeBudget(0, 2);
+
+        for (int i = 0; i < 5; i++) {
+            StubRpcService.heightRequest(service).sendAsync().get(1, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(5 + 2, first.requests.size() + second.requests.size());
+    }
+
+    @Test
+    public void testSynchronousFailuresCompleteTheCall() throws Exception {
+        StubRpcService throwing = new StubRpcService(request -> {
+            throw new IllegalStateException("closed");
+        });
+        HedgingRpcService service = new HedgingRpcService(Arrays.asList(throwing, StubRpcService.replying()),
+                method -> true, 0.95, 10, 10, TimeUnit.MILLISECONDS);
+        // the first primary throws and fails over to the second backend
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).send().getHeight());
+
+        HedgingRpcService failing = new HedgingRpcService(Arrays.asList(throwing, throwing),
+                method -> true, 0.95, 10, 10, TimeUnit.MILLISECONDS);
+        try {
+            StubRpcService.heightRequest(failing).sendAsync().get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.vitej.core.protocal;
+
+import org.vitej.core.protocal.standin.StandInServer;
+import org.vitej.core.protocol.HttpService;
+import org.vitej.core.protocol.Vitej;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of HttpService.sendAsync against a {@link StandInServer}, with OkHttp's default
+ * pool and dispatcher versus a pool sized by {@link HttpService.Builder}.
+ * Run the main method, it is not part of the unit tests.
+ */
+public class HttpServiceBenchmark {
+    private static final int[] CONCURRENCY = {1, 16, 256};
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long MEASURE_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        StandInServer server = new StandInServer().start();
+        String url = server.getHttpUrl();
+        try {
+            for (int concurrency : CONCURRENCY) {
+                HttpService defaults = new HttpService(url);
+                HttpService tuned = HttpService.builder()
+                        .url(url)
+                        .maxRequestsPerHost(concurrency)
+                        .maxIdleConnections(concurrency)
+                        .keepAliveDuration(1, TimeUnit.MINUTES)
+                        .build();
+                System.out.printf("concurrency %4d: default %10.0f req/s, tuned %10.0f req/s%n",
+                        concurrency, run(defaults, concurrency), run(tuned, concurrency));
+                tuned.close();
+            }
+        } finally {
+            server.close();
+        }
+        System.exit(0);
+    }
+
+    private static double run(HttpService service, int concurrency) throws InterruptedException {
+        Vitej vitej = new Vitej(service);
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicBoolean measuring = new AtomicBoolean(false);
+        AtomicLong completed = new AtomicLong();
+
+        long warmupEnd = System.currentTimeMillis() + WARMUP_MILLIS;
+        long end = warmupEnd + MEASURE_MILLIS;
+        while (System.currentTimeMillis() < end) {
+            if (!measuring.get() && System.currentTimeMillis() >= warmupEnd) {
+                completed.set(0);
+                measuring.set(true);
+            }
+            inFlight.acquire();
+            CompletableFuture<?> future = vitej.getSnapshotChainHeight().sendAsync();
+            future.whenComplete((r, t) -> {
+                completed.incrementAndGet();
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(concurrency);
+        return completed.get() * 1000.0 / MEASURE_MILLIS;
+    }
+}
@@ -0,0 +1,138 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.exception.ConnectionException;
+import org.vitej.core.exception.RequestRejectedException;
+import org.vitej.core.protocol.CircuitBreakerRpcService;
+import org.vitej.core.protocol.LoadBalancedRpcService;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class LoadBalancedRpcServiceTest {
+    @Test
+    public void testBackendWithoutRepliesDoesNotDrawAllRequests() throws Exception {
+        StubRpcService first = new StubRpcService(request -> CompletableFuture.supplyAsync(() -> {
+            sleep(5);
+            return StubRpcService.reply(request, "1");
+        }));
+        StubRpcService second = new StubRpcService(request -> new CompletableFuture<>());
+        LoadBalancedRpcService service = new LoadBalancedRpcService(Arrays.asList(first, second),
+                LoadBalancedRpcService.Strategy.EWMA_LATENCY, 0, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 3; i++) {
+            StubRpcService.heightRequest(service).send();
+        }
+        Assert.assertEquals(3, first.requests.size());
+        for (int i = 0; i < 10; i++) {
+            StubRpcService.heightRequest(service).sendAsync();
+        }
+        // the second backend never replies, with a latency of 0 it would get all 10
+        Assert.assertTrue(second.requests.size() < 10);
+        Assert.assertTrue(first.requests.size() > 3);
+    }
+
+    @Test
+    public void testBackendIsUnhealthyAfterFailureThreshold() throws Exception {
+        StubRpcService failing = new StubRpcService(request -> StubRpcService.failed(new IOException("refused")));
+        StubRpcService healthy = StubRpcService.replying();
+        LoadBalancedRpcService service = new LoadBalancedRpcService(Arrays.asList(failing, healthy),
+                LoadBalancedRpcService.Strategy.LEAST_OUTSTANDING, 0, TimeUnit.SECONDS);
+        service.setFailureThreshold(2);
+
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).send().getHeight());
+        Assert.assertTrue(service.isHealthy(0));
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).send().getHeight());
+        Assert.assertFalse(service.isHealthy(0));
+        Assert.assertEquals(2, failing.requests.size());
+
+        StubRpcService.heightRequest(service).send();
+        Assert.assertEquals(2, failing.requests.size());
+    }
+
+    @Test
+    public void testOpenCircuitBreakerFailsOverAndMarksBackendUnhealthy() throws Exception {
+        StubRpcService failing = new StubRpcService(request -> StubRpcService.failed(new IOException("refused")));
+        StubRpcService healthy = StubRpcService.replying();
+        CircuitBreakerRpcService breaker = new CircuitBreakerRpcService(failing, 2, 2, 0.5, 1, 1, 1, 1, TimeUnit.MINUTES);
+        LoadBalancedRpcService service = new LoadBalancedRpcService(
+                Arrays.asList(breaker, new CircuitBreakerRpcService(healthy)),
+                LoadBalancedRpcService.Strategy.LEAST_OUTSTANDING, 0, TimeUnit.SECONDS);
+        service.setFailureThreshold(10);
+
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).send().getHeight());
+        }
+        Assert.assertEquals(CircuitBreakerRpcService.State.OPEN, breaker.getState());
+        Assert.assertTrue(service.isHealthy(0));
+
+        // the rejection fails over like a connection failure and takes the backend out at once
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).sendAsync().get(1, TimeUnit.SECONDS).getHeight());
+        Assert.assertFalse(service.isHealthy(0));
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).send().getHeight());
+        Assert.assertEquals(2, failing.requests.size());
+        Assert.assertEquals(4, healthy.requests.size());
+    }
+
+    @Test
+    public void testEjectedBackendGetsRequestsAgainWithoutProbes() throws Exception {
+        StubRpcService flaky = new StubRpcService(request -> StubRpcService.failed(new IOException("refused")));
+        StubRpcService healthy = StubRpcService.replying();
+        LoadBalancedRpcService service = new LoadBalancedRpcService(Arrays.asList(flaky, healthy),
+                LoadBalancedRpcService.Strategy.LEAST_OUTSTANDING, 0, TimeUnit.SECONDS);
+        service.setFailureThreshold(1);
+        service.setEjectionDuration(50, TimeUnit.MILLISECONDS);
+
+        StubRpcService.heightRequest(service).send();
+        Assert.assertFalse(service.isHealthy(0));
+        StubRpcService.heightRequest(service).send();
+        Assert.assertEquals(1, flaky.requests.size());
+
+        Thread.sleep(60);
+        flaky.setHandler(request -> CompletableFuture.completedFuture(StubRpcService.reply(request, "1")));
+        StubRpcService.heightRequest(service).send();
+        Assert.assertEquals(2, flaky.requests.size());
+        Assert.assertTrue(service.isHealthy(0));
+    }
+
+    @Test
+    public void testClientErrorsAreNotFailedOver() throws Exception {
+        StubRpcService rejecting = new StubRpcService(request -> StubRpcService.failed(new ConnectionException("bad request", 400)));
+        StubRpcService healthy = StubRpcService.replying();
+        LoadBalancedRpcService service = new LoadBalancedRpcService(Arrays.asList(rejecting, healthy),
+                LoadBalancedRpcService.Strategy.LEAST_OUTSTANDING, 0, TimeUnit.SECONDS);
+
+        try {
+            StubRpcService.heightRequest(service).send();
+            Assert.fail();
+        } catch (ConnectionException e) {
+            Assert.assertEquals(400, e.getCode());
+        }
+        Assert.assertEquals(0, healthy.requests.size());
+        Assert.assertTrue(service.isHealthy(0));
+    }
+
+    @Test
+    public void testLimiterRejectionFailsOverWithoutEjecting() throws Exception {
+        StubRpcService rejecting = new StubRpcService(request -> StubRpcService.failed(new RequestRejectedException("queue full")));
+        StubRpcService healthy = StubRpcService.replying();
+        LoadBalancedRpcService service = new LoadBalancedRpcService(Arrays.asList(rejecting, healthy),
+                LoadBalancedRpcService.Strategy.LEAST_OUTSTANDING, 0, TimeUnit.SECONDS);
+
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).send().getHeight());
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).sendAsync().get(1, TimeUnit.SECONDS).getHeight());
+        Assert.assertEquals(2, rejecting.requests.size());
+        Assert.assertTrue(service.isHealthy(0));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
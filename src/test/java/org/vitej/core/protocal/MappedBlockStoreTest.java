@@ -0,0 +1,146 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vitej.core.protocol.methods.response.AccountBlock;
+import org.vitej.core.protocol.methods.response.SnapshotBlock;
+import org.vitej.core.protocol.store.MappedBlockStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+public class MappedBlockStoreTest {
+    private static final String ADDRESS = "vite_ab24ef68b84e642c0ddca06beec81c9acb1977bbd7da27a87a";
+    private static final int HEADER_SIZE = 9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String hash(int i) {
+        return String.format("%064x", i);
+    }
+
+    private static AccountBlock accountBlock(int height) {
+        AccountBlock block = new AccountBlock();
+        block.setBlockType(4);
+        block.setHash(hash(height));
+        block.setAddress(ADDRESS);
+        block.setHeight(String.valueOf(height));
+        block.setFirstSnapshotHash(hash(1000 + height));
+        block.setConfirmations("7");
+        return block;
+    }
+
+    @Test
+    public void testIndexesAreRebuiltOnReopen() throws IOException {
+        File directory = folder.newFolder();
+        try (MappedBlockStore store = new MappedBlockStore(directory)) {
+            store.putAccountBlock(accountBlock(1));
+            SnapshotBlock snapshot = new SnapshotBlock();
+            snapshot.setHash(hash(100));
+            snapshot.setHeight(100L);
+            store.putSnapshotBlock(snapshot);
+        }
+
+        try (MappedBlockStore store = new MappedBlockStore(directory)) {
+            Assert.assertEquals(1, store.getAccountBlockCount());
+            Assert.assertEquals(1, store.getSnapshotBlockCount());
+            AccountBlock block = store.getAccountBlock(hash(1));
+            Assert.assertEquals(hash(1001), block.getFirstSnapshotHashRaw());
+            Assert.assertEquals(hash(1), store.getAccountBlock(ADDRESS, 1).getHashRaw());
+            Assert.assertEquals(hash(100), store.getSnapshotBlock(100).getHashRaw());
+            Assert.assertEquals(Long.valueOf(100), store.getSnapshotBlock(hash(100)).getHeight());
+        }
+    }
+
+    @Test
+    public void testConfirmationsAreNotStored() throws IOException {
+        try (MappedBlockStore store = new MappedBlockStore(folder.newFolder())) {
+            AccountBlock block = accountBlock(1);
+            block.setTriggeredSendBlockList(Collections.singletonList(accountBlock(2)));
+            store.putAccountBlock(block);
+            AccountBlock stored = store.getAccountBlock(hash(1));
+            Assert.assertNull(stored.getConfirmationsRaw());
+            Assert.assertNull(stored.getTriggeredSendBlockList().get(0).getConfirmationsRaw());
+            Assert.assertEquals("7", block.getConfirmationsRaw());
+        }
+    }
+
+    @Test
+    public void testCorruptTailRecordIsDroppedAndOverwritten() throws IOException {
+        File directory = folder.newFolder();
+        try (MappedBlockStore store = new MappedBlockStore(directory)) {
+            store.putAccountBlock(accountBlock(1));
+            store.putAccountBlock(accountBlock(2));
+        }
+        try (RandomAccessFile segment = new RandomAccessFile(new File(directory, "segment-00000.dat"), "rw")) {
+            int second = HEADER_SIZE + segment.readInt();
+            // flip a payload byte of the second record so its CRC no longer matches
+            segment.seek(second + HEADER_SIZE + 1);
+            int b = segment.read();
+            segment.seek(second + HEADER_SIZE + 1);
+            segment.write(b ^ 0xFF);
+        }
+
+        try (MappedBlockStore store = new MappedBlockStore(directory)) {
+            Assert.assertEquals(1, store.getAccountBlockCount());
+            Assert.assertNotNull(store.getAccountBlock(hash(1)));
+            Assert.assertNull(store.getAccountBlock(hash(2)));
+            store.putAccountBlock(accountBlock(3));
+        }
+        try (MappedBlockStore store = new MappedBlockStore(directory)) {
+            Assert.assertEquals(2, store.getAccountBlockCount());
+            Assert.assertEquals(hash(3), store.getAccountBlock(ADDRESS, 3).getHashRaw());
+        }
+    }
+
+    @Test
+    public void testTornTailRecordReadsAsEndOfSegment() throws IOException {
+        File directory = folder.newFolder();
+        try (MappedBlockStore store = new MappedBlockStore(directory)) {
+            store.putAccountBlock(accountBlock(1));
+            store.putAccountBlock(accountBlock(2));
+        }
+        try (RandomAccessFile segment = new RandomAccessFile(new File(directory, "segment-00000.dat"), "rw")) {
+            int second = HEADER_SIZE + segment.readInt();
+            // a crash before the length of the second record was written
+            segment.seek(second);
+            segment.writeInt(0);
+        }
+
+        try (MappedBlockStore store = new MappedBlockStore(directory)) {
+            Assert.assertEquals(1, store.getAccountBlockCount());
+            Assert.assertNull(store.getAccountBlock(hash(2)));
+        }
+    }
+
+    @Test
+    public void testRecordsRollOverToNewSegments() throws IOException {
+        File directory = folder.newFolder();
+        try (MappedBlockStore store = new MappedBlockStore(directory, 2048)) {
+            for (int i = 1; i <= 20; i++) {
+                store.putAccountBlock(accountBlock(i));
+            }
+        }
+        Assert.assertTrue(new File(directory, "segment-00002.dat").exists());
+
+        try (MappedBlockStore store = new MappedBlockStore(directory, 2048)) {
+            Assert.assertEquals(20, store.getAccountBlockCount());
+            for (int i = 1; i <= 20; i++) {
+                Assert.assertEquals(hash(i), store.getAccountBlock(ADDRESS, i).getHashRaw());
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadAfterCloseFails() throws IOException {
+        MappedBlockStore store = new MappedBlockStore(folder.newFolder());
+        store.putAccountBlock(accountBlock(1));
+        store.close();
+        store.getAccountBlock(hash(1));
+    }
+}
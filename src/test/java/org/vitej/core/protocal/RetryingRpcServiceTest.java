@@ -0,0 +1,120 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.exception.ConnectionException;
+import org.vitej.core.protocol.RetryingRpcService;
+import org.vitej.core.protocol.RpcMethodClassifier;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryingRpcServiceTest {
+    private static StubRpcService failing() {
+        return new StubRpcService(request -> StubRpcService.failed(new IOException("refused")));
+    }
+
+    @Test
+    public void testRetriesStopWhenBudgetIsExhausted() throws Exception {
+        StubRpcService stub = failing();
+        RetryingRpcService service = new RetryingRpcService(stub, RpcMethodClassifier::isRetryable, 10, 0, 0, 0, 2);
+
+        try {
+            StubRpcService.heightRequest(service).send();
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+        // the budget of two tokens is spent by the first request
+        Assert.assertEquals(3, stub.requests.size());
+        try {
+            StubRpcService.heightRequest(service).sendAsync().get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(4, stub.requests.size());
+    }
+
+    @Test
+    public void testBackoffIsBoundedByMaxDelay() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        StubRpcService stub = new StubRpcService(request -> calls.incrementAndGet() <= 3
+                ? StubRpcService.failed(new ConnectionException("unavailable", 503))
+                : CompletableFuture.completedFuture(StubRpcService.reply(request, "1")));
+        RetryingRpcService service = new RetryingRpcService(stub, RpcMethodClassifier::isRetryable, 4, 20, 40, 1, 10);
+
+        long start = System.nanoTime();
+        Assert.assertEquals(Long.valueOf(1), StubRpcService.heightRequest(service).send().getHeight());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals(4, stub.requests.size());
+        // at most 20 + 40 + 40 ms of backoff
+        Assert.assertTrue("took " + elapsed + " ms", elapsed < 100 + 400);
+    }
+
+    @Test
+    public void testPermanentFailuresAreNotRetried() throws Exception {
+        StubRpcService stub = new StubRpcService(request -> StubRpcService.failed(new ConnectionException("bad request", 400)));
+        RetryingRpcService service = new RetryingRpcService(stub, RpcMethodClassifier::isRetryable, 4, 0, 0, 1, 10);
+
+        try {
+            StubRpcService.heightRequest(service).send();
+            Assert.fail();
+        } catch (ConnectionException e) {
+            Assert.assertEquals(400, e.getCode());
+        }
+        Assert.assertEquals(1, stub.requests.size());
+    }
+
+    @Test
+    public void testNonIdempotentMethodsAreNotRetried() throws Exception {
+        StubRpcService stub = failing();
+        RetryingRpcService service = new RetryingRpcService(stub, RpcMethodClassifier::isRetryable, 4, 0, 0, 1, 10);
+        Request<?, ?> subscribe = new Request<>("subscribe_subscribe", Collections.singletonList("newSnapshotBlock"),
+                service, SnapshotChainHeightResponse.class);
+
+        try {
+            subscribe.send();
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(1, stub.requests.size());
+
+        // one request that must not be repeated keeps the whole batch from being retried
+        try {
+            service.sendBatchAsync(Arrays.asList(StubRpcService.heightRequest(service), subscribe)).get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(1, stub.batches.size());
+    }
+
+    @Test
+    public void testSynchronousFailureOfRetryFailsTheCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        StubRpcService stub = new StubRpcService(request -> {
+            if (calls.incrementAndGet() == 1) {
+                return StubRpcService.failed(new IOException("refused"));
+            }
+            throw new IllegalStateException("closed");
+        });
+        RetryingRpcService service = new RetryingRpcService(stub, RpcMethodClassifier::isRetryable, 4, 0, 0, 1, 10);
+
+        try {
+            StubRpcService.heightRequest(service).sendAsync().get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(2, calls.get());
+    }
+}
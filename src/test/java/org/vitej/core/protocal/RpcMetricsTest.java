@@ -0,0 +1,72 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.protocal.standin.StandInServer;
+import org.vitej.core.protocol.HttpService;
+import org.vitej.core.protocol.Vitej;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.EmptyResponse;
+import org.vitej.core.protocol.metrics.InMemoryRpcMetrics;
+import org.vitej.core.protocol.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class RpcMetricsTest {
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000);
+        }
+        Assert.assertEquals(10000, histogram.getCount());
+        assertWithin(5_000_000, histogram.getValueAtPercentile(50));
+        assertWithin(9_900_000, histogram.getValueAtPercentile(99));
+        assertWithin(10_000_000, histogram.getMax());
+        Assert.assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testRequestsAreRecordedPerMethod() throws Exception {
+        InMemoryRpcMetrics metrics = new InMemoryRpcMetrics();
+        try (StandInServer server = new StandInServer().start()) {
+            HttpService service = new HttpService(server.getHttpUrl());
+            service.setMetricsListener(metrics);
+            Vitej vitej = new Vitej(service);
+
+            vitej.getSnapshotChainHeight().send();
+            vitej.getSnapshotChainHeight().sendAsync().get();
+            service.sendBatch(Arrays.asList(vitej.getLatestSnapshotHash(), vitej.getSnapshotChainHeight()));
+            new Request<>("ledger_doesNotExist", Collections.emptyList(), service, EmptyResponse.class).send();
+
+            server.setLatency(200, 200, TimeUnit.MILLISECONDS);
+            try {
+                vitej.getSnapshotChainHeight().withDeadline(Duration.ofMillis(50)).send();
+                Assert.fail("Expected a timeout");
+            } catch (InterruptedIOException expected) {
+            }
+            service.close();
+        }
+
+        InMemoryRpcMetrics.MethodSnapshot height = metrics.snapshot().get("ledger_getSnapshotChainHeight");
+        Assert.assertEquals(4, height.getCount());
+        Assert.assertEquals(0, height.getInFlight());
+        Assert.assertEquals(1, height.getTimeouts());
+        Assert.assertEquals(0, height.getErrorCount());
+        Assert.assertTrue(height.getRequestBytes() > 0);
+        Assert.assertTrue(height.getResponseBytes() > 0);
+        Assert.assertEquals(1, metrics.snapshot().get("ledger_getLatestSnapshotHash").getCount());
+        Assert.assertEquals(Collections.singletonMap(StandInServer.METHOD_NOT_FOUND, 1L),
+                metrics.snapshot().get("ledger_doesNotExist").getErrorCounts());
+        Assert.assertTrue(metrics.report().contains("ledger_getSnapshotChainHeight"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(actual + " is not within 4% of " + expected, Math.abs(actual - expected) <= expected * 0.04);
+    }
+}
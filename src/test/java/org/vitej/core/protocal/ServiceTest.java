@@ -0,0 +1,280 @@
+package org.vitej.core.protocal;
+
+import io.reactivex.Flowable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.protocal.standin.StandInServer;
+import org.vitej.core.protocol.HttpService;
+import org.vitej.core.protocol.ProtocolHelper;
+import org.vitej.core.protocol.RpcService;
+import org.vitej.core.protocol.Service;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.AccountBlock;
+import org.vitej.core.protocol.methods.response.AccountBlocksResponse;
+import org.vitej.core.protocol.methods.response.LatestSnapshotHashResponse;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
+import org.vitej.core.protocol.websocket.events.Notification;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ServiceTest {
+    private static class StubService extends Service {
+        private final String reply;
+        private String lastPayload;
+
+        StubService(String reply) {
+            this.reply = reply;
+        }
+
+        @Override
+        protected InputStream performIO(String payload) throws IOException {
+            lastPayload = payload;
+            return new ByteArrayInputStream(reply.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testSendBatchMatchesRepliesById() throws IOException {
+        Request<?, SnapshotChainHeightResponse> height = new Request<>("ledger_getSnapshotChainHeight", Collections.emptyList(), null, SnapshotChainHeightResponse.class);
+        Request<?, LatestSnapshotHashResponse> hash = new Request<>("ledger_getLatestSnapshotHash", Collections.emptyList(), null, LatestSnapshotHashResponse.class);
+        StubService service = new StubService("["
+                + "{\"jsonrpc\":\"2.0\",\"id\":" + hash.getId() + ",\"error\":{\"code\":-32000,\"message\":\"busy\"}},"
+                + "{\"jsonrpc\":\"2.0\",\"id\":" + height.getId() + ",\"result\":\"100\"}"
+                + "]");
+
+        List<Response<?>> responses = service.sendBatch(Arrays.asList(height, hash));
+        Assert.assertTrue(service.lastPayload.startsWith("["));
+        Assert.assertEquals(2, responses.size());
+        Assert.assertEquals(Long.valueOf(100), ((SnapshotChainHeightResponse) responses.get(0)).getHeight());
+        Assert.assertTrue(responses.get(1) instanceof LatestSnapshotHashResponse);
+        Assert.assertEquals(-32000, responses.get(1).getError().getCode());
+    }
+
+    @Test(expected = IOException.class)
+    public void testSendBatchMissingReply() throws IOException {
+        Request<?, SnapshotChainHeightResponse> height = new Request<>("ledger_getSnapshotChainHeight", Collections.emptyList(), null, SnapshotChainHeightResponse.class);
+        Request<?, SnapshotChainHeightResponse> other = new Request<>("ledger_getSnapshotChainHeight", Collections.emptyList(), null, SnapshotChainHeightResponse.class);
+        new StubService("[{\"jsonrpc\":\"2.0\",\"id\":" + height.getId() + ",\"result\":\"1\"}]")
+                .sendBatch(Arrays.asList(height, other));
+    }
+
+    @Test
+    public void testStreamHandsOverElementsOneByOne() throws IOException {
+        Request<?, AccountBlocksResponse> request = new Request<>("ledger_getAccountBlocksByAddress", Collections.emptyList(), null, AccountBlocksResponse.class);
+        StubService service = new StubService("{\"jsonrpc\":\"2.0\",\"id\":" + request.getId() + ",\"result\":["
+                + "{\"height\":\"2\",\"unknown\":{\"nested\":[1,2]}},{\"height\":\"1\"}]}");
+        request = new Request<>("ledger_getAccountBlocksByAddress", Collections.emptyList(), service, AccountBlocksResponse.class);
+
+        List<AccountBlock> blocks = new ArrayList<>();
+        AccountBlocksResponse response = request.<AccountBlock>stream(blocks::add);
+        Assert.assertNull(response.getResult());
+        Assert.assertFalse(response.hasError());
+        Assert.assertEquals(2, blocks.size());
+        Assert.assertEquals(Long.valueOf(2), blocks.get(0).getHeight());
+        Assert.assertEquals(Long.valueOf(1), blocks.get(1).getHeight());
+    }
+
+    @Test
+    public void testSendBatchRejectsDuplicateIdsBeforeSending() throws IOException {
+        Request<?, SnapshotChainHeightResponse> height = new Request<>("ledger_getSnapshotChainHeight", Collections.emptyList(), null, SnapshotChainHeightResponse.class);
+        Request<?, SnapshotChainHeightResponse> other = new Request<>("ledger_getSnapshotChainHeight", Collections.emptyList(), null, SnapshotChainHeightResponse.class);
+        other.setId(height.getId());
+        StubService service = new StubService("[]");
+        try {
+            service.sendBatch(Arrays.asList(height, other));
+            Assert.fail("duplicate ids should be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNull(service.lastPayload);
+        }
+        try {
+            service.sendBatchAsync(Arrays.asList(height, other));
+            Assert.fail("duplicate ids should be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNull(service.lastPayload);
+        }
+    }
+
+    @Test
+    public void testDefaultBatchAndStreamFallBackToSend() throws Exception {
+        RpcService service = new RpcService() {
+            @Override
+            public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+                return ProtocolHelper.getObjectMapper().readValue(
+                        "{\"id\":" + request.getId() + ",\"result\":[{\"height\":\"1\"}]}", responseType);
+            }
+
+            @Override
+            public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+                CompletableFuture<T> future = new CompletableFuture<>();
+                try {
+                    future.complete(send(request, responseType));
+                } catch (IOException e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            }
+
+            @Override
+            public <T extends Notification<?>> Flowable<T> subscribe(Request request) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Request<?, AccountBlocksResponse> first = new Request<>("ledger_getAccountBlocksByAddress", Collections.emptyList(), service, AccountBlocksResponse.class);
+        Request<?, AccountBlocksResponse> second = new Request<>("ledger_getAccountBlocksByAddress", Collections.emptyList(), service, AccountBlocksResponse.class);
+
+        List<Response<?>> responses = service.sendBatch(Arrays.asList(first, second));
+        Assert.assertEquals(second.getId(), responses.get(1).getId());
+        responses = service.sendBatchAsync(Arrays.asList(first, second)).get();
+        Assert.assertEquals(first.getId(), responses.get(0).getId());
+
+        List<AccountBlock> blocks = new ArrayList<>();
+        AccountBlocksResponse response = first.<AccountBlock>stream(blocks::add);
+        Assert.assertNull(response.getResult());
+        Assert.assertEquals(1, blocks.size());
+    }
+
+    @Test
+    public void testSendAsyncIsNotLimitedToFivePerHost() throws Exception {
+        try (StandInServer server = new StandInServer().start()) {
+            server.setLatency(300, 300, TimeUnit.MILLISECONDS);
+            HttpService service = new HttpService(server.getHttpUrl());
+            List<CompletableFuture<SnapshotChainHeightResponse>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                futures.add(StubRpcService.heightRequest(service).sendAsync());
+            }
+            for (CompletableFuture<SnapshotChainHeightResponse> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            // 5 at a time would take four rounds of 300 ms
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+        }
+    }
+
+    @Test
+    public void testBuilderKeepsMaxRequests() throws Exception {
+        try (StandInServer server = new StandInServer().start()) {
+            server.setLatency(200, 200, TimeUnit.MILLISECONDS);
+            HttpService service = HttpService.builder().url(server.getHttpUrl()).maxRequests(2).build();
+            try {
+                List<CompletableFuture<SnapshotChainHeightResponse>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int i = 0; i < 4; i++) {
+                    futures.add(StubRpcService.heightRequest(service).sendAsync());
+                }
+                for (CompletableFuture<SnapshotChainHeightResponse> future : futures) {
+                    future.get(5, TimeUnit.SECONDS);
+                }
+                // 2 at a time take two rounds of 200 ms, the per-host default of 256 must not raise the limit
+                Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+            } finally {
+                service.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSendHonorsDeadlineOnBlockingTransport() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Service service = new StubService("") {
+            @Override
+            protected InputStream performIO(String payload) throws IOException {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw new InterruptedIOException();
+                }
+                return super.performIO(payload);
+            }
+        };
+        long start = System.nanoTime();
+        try {
+            StubRpcService.heightRequest(service).withDeadline(Duration.ofMillis(100)).send();
+            Assert.fail();
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        }
+        // the blocking call does not keep running after the deadline
+        Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReplyAfterDeadlineIsClosed() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        Service service = new StubService("") {
+            @Override
+            protected InputStream performIO(String payload) {
+                // a transport that does not stop on interrupt
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+                while (System.nanoTime() < end) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        // keep going
+                    }
+                }
+                return new ByteArrayInputStream(new byte[0]) {
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                };
+            }
+        };
+        try {
+            StubRpcService.heightRequest(service).withDeadline(Duration.ofMillis(50)).send();
+            Assert.fail();
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        Assert.assertTrue(closed.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExpiredDeadlineFailsBeforeSending() throws Exception {
+        StubService service = new StubService("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"1\"}");
+        try {
+            StubRpcService.heightRequest(service).withDeadline(Duration.ZERO).send();
+            Assert.fail();
+        } catch (InterruptedIOException e) {
+            Assert.assertNull(service.lastPayload);
+        }
+    }
+
+    @Test
+    public void testHttpSendHonorsDeadline() throws Exception {
+        try (StandInServer server = new StandInServer().start()) {
+            server.setLatency(2, 2, TimeUnit.SECONDS);
+            HttpService service = new HttpService(server.getHttpUrl());
+            long start = System.nanoTime();
+            try {
+                StubRpcService.heightRequest(service).withDeadline(Duration.ofMillis(100)).send();
+                Assert.fail();
+            } catch (InterruptedIOException e) {
+                Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+    }
+}
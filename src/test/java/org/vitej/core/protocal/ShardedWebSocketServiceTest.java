@@ -0,0 +1,139 @@
+package org.vitej.core.protocal;
+
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subscribers.TestSubscriber;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vitej.core.constants.CommonConstants;
+import org.vitej.core.protocal.standin.StandInServer;
+import org.vitej.core.protocol.HttpService;
+import org.vitej.core.protocol.Vitej;
+import org.vitej.core.protocol.methods.Address;
+import org.vitej.core.protocol.methods.enums.EBlockType;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.request.TransactionParams;
+import org.vitej.core.protocol.methods.response.SnapshotBlockNotification;
+import org.vitej.core.protocol.methods.response.UnreceivedBlockNotification;
+import org.vitej.core.protocol.websocket.ShardedWebSocketService;
+import org.vitej.core.protocol.websocket.WebSocketService;
+import org.vitej.core.wallet.KeyPair;
+import org.vitej.core.wallet.Wallet;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class ShardedWebSocketServiceTest {
+    private static final List<String> MNEMONIC = Arrays.asList(
+            "main uncle palace wing carpet dutch electric kingdom gasp much ancient inquiry offer piece limit eager base bar tonight barrel prosper hundred man slice"
+                    .split(" "));
+    private static final int RECEIVERS = 8;
+
+    private final Wallet wallet = new Wallet(MNEMONIC);
+    private StandInServer server;
+    private HttpService httpService;
+    private ShardedWebSocketService shardedService;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInServer().start();
+        httpService = new HttpService(server.getHttpUrl());
+        shardedService = new ShardedWebSocketService(server.getWebSocketUrl(), 3);
+        for (WebSocketService shard : shardedService.getShards()) {
+            shard.setReconnectBackoff(20, 100, TimeUnit.MILLISECONDS);
+        }
+        shardedService.connect();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        shardedService.close();
+        httpService.close();
+        server.close();
+    }
+
+    @Test
+    public void testSubscriptionsMoveWithConnections() throws Exception {
+        Vitej vitej = new Vitej(shardedService);
+        List<UnreceivedBlockNotification> notifications = new CopyOnWriteArrayList<>();
+        List<Disposable> subscriptions = new ArrayList<>();
+        for (int i = 1; i <= RECEIVERS; i++) {
+            subscriptions.add(vitej.unreceivedBlockFlowable(wallet.deriveKeyPair(i).getAddress()).subscribe(notifications::add));
+        }
+        try {
+            Assert.assertEquals(RECEIVERS, server.getSubscriptionCount());
+            sendToReceivers();
+            await(() -> notifications.size() == RECEIVERS);
+
+            server.dropWebSockets();
+            await(() -> server.getSubscriptionCount() == RECEIVERS);
+            sendToReceivers();
+            await(() -> notifications.size() == 2 * RECEIVERS);
+            Assert.assertEquals(Long.valueOf(1), vitej.getSnapshotChainHeight().send().getHeight());
+        } finally {
+            subscriptions.forEach(Disposable::dispose);
+        }
+        await(() -> server.getSubscriptionCount() == 0);
+    }
+
+    @Test
+    public void testFailedSubscriptionIsNotMovedAgain() throws Exception {
+        Vitej vitej = new Vitej(shardedService);
+        Address receiver = wallet.deriveKeyPair(1).getAddress();
+        Flowable<UnreceivedBlockNotification> flowable = vitej.unreceivedBlockFlowable(receiver);
+        // nothing is subscribed before the Flowable is subscribed to
+        Assert.assertTrue(shardedService.getSubscriptionStats().isEmpty());
+        Assert.assertEquals(0, server.getSubscriptionCount());
+
+        server.setErrorRate(1);
+        TestSubscriber<UnreceivedBlockNotification> subscriber = flowable.test();
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        subscriber.assertError(IOException.class);
+        Assert.assertTrue(shardedService.getSubscriptionStats().isEmpty());
+
+        server.setErrorRate(0);
+        server.dropWebSockets();
+        await(() -> shardedService.getShards().stream().allMatch(WebSocketService::isConnected));
+        Thread.sleep(100);
+        Assert.assertEquals(0, server.getSubscriptionCount());
+    }
+
+    @Test
+    public void testSubscribeWithoutParams() throws Exception {
+        Request request = new Request("subscribe_subscribe", null, shardedService, SnapshotBlockNotification.class);
+        TestSubscriber<SnapshotBlockNotification> subscriber = shardedService.<SnapshotBlockNotification>subscribe(request).test();
+        // the node rejects it, the request itself is passed on to the shard
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        subscriber.assertError(IOException.class);
+    }
+
+    private void sendToReceivers() throws IOException {
+        Vitej vitej = new Vitej(httpService);
+        KeyPair sender = wallet.deriveKeyPair(0);
+        for (int i = 1; i <= RECEIVERS; i++) {
+            Address receiver = wallet.deriveKeyPair(i).getAddress();
+            Assert.assertNull(vitej.sendTransaction(sender,
+                    new TransactionParams().setBlockType(EBlockType.SEND_CALL.getValue())
+                            .setToAddress(receiver)
+                            .setAmount(BigInteger.TEN)
+                            .setTokenId(CommonConstants.VITE_TOKEN_ID),
+                    true).send().getError());
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,83 @@
+package org.vitej.core.protocal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.vitej.core.protocol.SingleFlightRpcService;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class SingleFlightRpcServiceTest {
+    private final CopyOnWriteArrayList<CompletableFuture<Response<?>>> replies = new CopyOnWriteArrayList<>();
+    private final StubRpcService stub = new StubRpcService(request -> {
+        CompletableFuture<Response<?>> reply = new CompletableFuture<>();
+        replies.add(reply);
+        return reply;
+    });
+    private final SingleFlightRpcService service = new SingleFlightRpcService(stub);
+
+    private void replyAll() {
+        for (int i = 0; i < replies.size(); i++) {
+            replies.get(i).complete(StubRpcService.reply(stub.requests.get(i), "1"));
+        }
+    }
+
+    @Test
+    public void testAttachedCallersGetTheirOwnCopy() throws Exception {
+        Request<?, SnapshotChainHeightResponse> first = StubRpcService.heightRequest(service);
+        Request<?, SnapshotChainHeightResponse> second = StubRpcService.heightRequest(service);
+        CompletableFuture<SnapshotChainHeightResponse> leader = first.sendAsync();
+        CompletableFuture<SnapshotChainHeightResponse> follower = second.sendAsync();
+        Assert.assertEquals(1, stub.requests.size());
+        replyAll();
+
+        SnapshotChainHeightResponse leaderResponse = leader.get(1, TimeUnit.SECONDS);
+        SnapshotChainHeightResponse followerResponse = follower.get(1, TimeUnit.SECONDS);
+        Assert.assertNotSame(leaderResponse, followerResponse);
+        Assert.assertEquals(Long.valueOf(1), followerResponse.getHeight());
+        Assert.assertEquals(second.getId(), followerResponse.getId());
+        followerResponse.setResult("2");
+        Assert.assertEquals(Long.valueOf(1), leaderResponse.getHeight());
+    }
+
+    @Test
+    public void testAttachedCallerHonorsItsOwnDeadline() throws Exception {
+        CompletableFuture<SnapshotChainHeightResponse> leader = StubRpcService.heightRequest(service).sendAsync();
+        try {
+            StubRpcService.heightRequest(service).withDeadline(Duration.ofMillis(50)).sendAsync().get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+        try {
+            StubRpcService.heightRequest(service).withDeadline(Duration.ofMillis(50)).send();
+            Assert.fail();
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        Assert.assertFalse(leader.isDone());
+        replyAll();
+        Assert.assertEquals(Long.valueOf(1), leader.get(1, TimeUnit.SECONDS).getHeight());
+        Assert.assertEquals(1, stub.requests.size());
+    }
+
+    @Test
+    public void testRequestWithDeadlineIsNotShared() throws Exception {
+        CompletableFuture<SnapshotChainHeightResponse> bounded =
+                StubRpcService.heightRequest(service).withDeadline(Duration.ofSeconds(10)).sendAsync();
+        CompletableFuture<SnapshotChainHeightResponse> unbounded = StubRpcService.heightRequest(service).sendAsync();
+        // the second request must not inherit the deadline of the first
+        Assert.assertEquals(2, stub.requests.size());
+        replyAll();
+        bounded.get(1, TimeUnit.SECONDS);
+        unbounded.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(0, service.getInFlight());
+    }
+}
@@ -0,0 +1,99 @@
+package org.vitej.core.protocal;
+
+import io.reactivex.Flowable;
+import org.vitej.core.protocol.RpcService;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.response.Response;
+import org.vitej.core.protocol.methods.response.SnapshotChainHeightResponse;
+import org.vitej.core.protocol.websocket.events.Notification;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * RpcService whose replies come from a handler, to test the RpcService decorators without a node
+ */
+class StubRpcService implements RpcService {
+    private volatile Function<Request<?, ?>, CompletableFuture<Response<?>>> handler;
+    final List<Request<?, ?>> requests = new CopyOnWriteArrayList<>();
+    final List<List<Request<?, ?>>> batches = new CopyOnWriteArrayList<>();
+
+    StubRpcService(Function<Request<?, ?>, CompletableFuture<Response<?>>> handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * @return Service answering every request at once with result "1"
+     */
+    static StubRpcService replying() {
+        return new StubRpcService(request -> CompletableFuture.completedFuture(reply(request, "1")));
+    }
+
+    void setHandler(Function<Request<?, ?>, CompletableFuture<Response<?>>> handler) {
+        this.handler = handler;
+    }
+
+    static Request<String, SnapshotChainHeightResponse> heightRequest(RpcService service) {
+        return new Request<>("ledger_getSnapshotChainHeight", Collections.emptyList(), service, SnapshotChainHeightResponse.class);
+    }
+
+    static Response<?> reply(Request<?, ?> request, String result) {
+        SnapshotChainHeightResponse response = new SnapshotChainHeightResponse();
+        response.setId(request.getId());
+        response.setResult(result);
+        return response;
+    }
+
+    static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        try {
+            return (T) sendAsync(request, responseType).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        requests.add(request);
+        return (CompletableFuture<T>) (CompletableFuture<?>) handler.apply(request);
+    }
+
+    @Override
+    public CompletableFuture<List<Response<?>>> sendBatchAsync(List<Request<?, ?>> requests) {
+        batches.add(new ArrayList<>(requests));
+        return RpcService.super.sendBatchAsync(requests);
+    }
+
+    @Override
+    public <T extends Notification<?>> Flowable<T> subscribe(Request request) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+    }
+}
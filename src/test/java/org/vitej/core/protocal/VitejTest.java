@@ -1,6 +1,8 @@
 package org.vitej.core.protocal;
 
 import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
 import org.junit.Test;
 import org.vitej.core.constants.BuiltinContracts;
 import org.vitej.core.constants.CommonConstants;
@@ -58,7 +60,19 @@ import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public class VitejTest {
-    private Vitej vitej = new Vitej(new HttpService("http://127.0.0.1:23456"));
+    /**
+     * Node the tests run against, set with -Dvitej.url, e.g. http://127.0.0.1:23456. The tests
+     * rely on live chain data and are skipped without it.
+     */
+    private static final String NODE_URL = System.getProperty("vitej.url");
+
+    private Vitej vitej;
+
+    @Before
+    public void connect() {
+        Assume.assumeTrue("set -Dvitej.url to run against a node", NODE_URL != null);
+        vitej = new Vitej(new HttpService(NODE_URL));
+    }
 
     @Test
     public void testSendTransaction() {
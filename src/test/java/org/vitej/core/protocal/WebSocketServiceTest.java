@@ -0,0 +1,261 @@
+package org.vitej.core.protocal;
+
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subscribers.TestSubscriber;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vitej.core.protocal.standin.StandInServer;
+import org.vitej.core.protocol.Vitej;
+import org.vitej.core.protocol.methods.response.SnapshotBlockNotification;
+import org.vitej.core.protocol.websocket.SubscriptionBackpressure;
+import org.vitej.core.protocol.websocket.SubscriptionStats;
+import org.vitej.core.protocol.websocket.WebSocketService;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class WebSocketServiceTest {
+    private StandInServer server;
+    private WebSocketService webSocketService;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInServer().start();
+        webSocketService = new WebSocketService(server.getWebSocketUrl());
+        webSocketService.setReconnectBackoff(20, 100, TimeUnit.MILLISECONDS);
+        webSocketService.connect();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        webSocketService.close();
+        server.close();
+    }
+
+    @Test
+    public void testReconnectBackfillsSnapshotBlocks() throws Exception {
+        List<SnapshotBlockNotification> snapshotBlocks = new CopyOnWriteArrayList<>();
+        Disposable subscription = new Vitej(webSocketService).snapshotBlockFlowable().subscribe(snapshotBlocks::add);
+        try {
+            server.getLedger().produceSnapshotBlock();
+            await(() -> snapshotBlocks.size() == 1);
+
+            server.dropWebSockets();
+            server.getLedger().produceSnapshotBlock();
+            server.getLedger().produceSnapshotBlock();
+            await(() -> snapshotBlocks.size() == 3);
+
+            server.getLedger().produceSnapshotBlock();
+            await(() -> snapshotBlocks.size() == 4);
+
+            List<Long> heights = new ArrayList<>();
+            for (SnapshotBlockNotification notification : snapshotBlocks) {
+                notification.getParams().getResult().forEach(result -> heights.add(result.getHeight()));
+            }
+            Assert.assertEquals(Arrays.asList(2L, 3L, 4L, 5L), heights);
+        } finally {
+            subscription.dispose();
+        }
+    }
+
+    @Test
+    public void testBoundedBackpressure() throws Exception {
+        webSocketService.setSubscriptionBackpressure(SubscriptionBackpressure.dropOldest(2));
+        TestSubscriber<SnapshotBlockNotification> subscriber = new Vitej(webSocketService).snapshotBlockFlowable().test(0);
+        SubscriptionStats stats = webSocketService.getActiveSubscriptions().get(0).getStats();
+        for (int i = 0; i < 5; i++) {
+            server.getLedger().produceSnapshotBlock();
+        }
+        await(() -> stats.getReceivedCount() == 5);
+        Assert.assertEquals(3, stats.getDroppedCount());
+        Assert.assertEquals(2, stats.getQueueDepth());
+
+        subscriber.request(10);
+        subscriber.assertValueCount(2);
+        Assert.assertEquals(Long.valueOf(5), subscriber.values().get(0).getParams().getResult().get(0).getHeight());
+        Assert.assertEquals(0, stats.getQueueDepth());
+        subscriber.dispose();
+        Assert.assertTrue(webSocketService.getActiveSubscriptions().isEmpty());
+    }
+
+    @Test
+    public void testDispatchQueueIsBounded() throws Exception {
+        List<Runnable> held = new CopyOnWriteArrayList<>();
+        webSocketService.setDispatchExecutor(held::add);
+        webSocketService.setSubscriptionBackpressure(SubscriptionBackpressure.dropOldest(2));
+        TestSubscriber<SnapshotBlockNotification> subscriber = new Vitej(webSocketService).snapshotBlockFlowable().test();
+        SubscriptionStats stats = webSocketService.getActiveSubscriptions().get(0).getStats();
+        for (int i = 0; i < 5; i++) {
+            server.getLedger().produceSnapshotBlock();
+        }
+        // the dispatcher is stuck, events beyond the capacity are dropped before they are queued
+        await(() -> stats.getDroppedCount() == 3);
+        Assert.assertEquals(1, held.size());
+
+        held.forEach(Runnable::run);
+        subscriber.assertValueCount(2);
+        Assert.assertEquals(Long.valueOf(5), subscriber.values().get(0).getParams().getResult().get(0).getHeight());
+        Assert.assertEquals(Long.valueOf(6), subscriber.values().get(1).getParams().getResult().get(0).getHeight());
+        Assert.assertEquals(0, stats.getQueueDepth());
+        subscriber.dispose();
+    }
+
+    @Test
+    public void testIdenticalSubscriptionsAreShared() throws Exception {
+        Vitej vitej = new Vitej(webSocketService);
+        List<SnapshotBlockNotification> first = new CopyOnWriteArrayList<>();
+        List<SnapshotBlockNotification> second = new CopyOnWriteArrayList<>();
+        Disposable firstSubscription = vitej.snapshotBlockFlowable().subscribe(first::add);
+        Disposable secondSubscription = vitej.snapshotBlockFlowable().subscribe(second::add);
+        Assert.assertEquals(1, server.getSubscriptionCount());
+
+        server.getLedger().produceSnapshotBlock();
+        await(() -> first.size() == 1 && second.size() == 1);
+
+        // a late joiner does not see the event delivered before it joined
+        List<SnapshotBlockNotification> late = new CopyOnWriteArrayList<>();
+        Disposable lateSubscription = vitej.snapshotBlockFlowable().subscribe(late::add);
+        server.getLedger().produceSnapshotBlock();
+        await(() -> first.size() == 2 && late.size() == 1);
+        Assert.assertEquals(Long.valueOf(3), late.get(0).getParams().getResult().get(0).getHeight());
+        lateSubscription.dispose();
+
+        firstSubscription.dispose();
+        Assert.assertEquals(1, server.getSubscriptionCount());
+        secondSubscription.dispose();
+        await(() -> server.getSubscriptionCount() == 0);
+    }
+
+    @Test
+    public void testEverySubscriberOfAFlowableCounts() throws Exception {
+        Vitej vitej = new Vitej(webSocketService);
+        vitej.snapshotBlockFlowable();
+        Assert.assertTrue(webSocketService.getActiveSubscriptions().isEmpty());
+        Assert.assertEquals(0, server.getSubscriptionCount());
+
+        Flowable<SnapshotBlockNotification> flowable = vitej.snapshotBlockFlowable();
+        List<SnapshotBlockNotification> second = new CopyOnWriteArrayList<>();
+        Disposable firstSubscription = flowable.subscribe(notification -> { });
+        Disposable secondSubscription = flowable.subscribe(second::add);
+        Assert.assertEquals(1, server.getSubscriptionCount());
+
+        firstSubscription.dispose();
+        server.getLedger().produceSnapshotBlock();
+        await(() -> second.size() == 1);
+        Assert.assertEquals(1, server.getSubscriptionCount());
+        secondSubscription.dispose();
+        await(() -> server.getSubscriptionCount() == 0);
+        Assert.assertTrue(webSocketService.getActiveSubscriptions().isEmpty());
+
+        // subscribing again after all have left subscribes on the node again
+        Disposable again = flowable.subscribe(notification -> { });
+        Assert.assertEquals(1, server.getSubscriptionCount());
+        again.dispose();
+    }
+
+    @Test
+    public void testSubscribeWhileReconnectingWaitsForTheReconnect() throws Exception {
+        webSocketService.setReconnectBackoff(300, 300, TimeUnit.MILLISECONDS);
+        server.dropWebSockets();
+        await(() -> !webSocketService.isConnected());
+
+        List<SnapshotBlockNotification> snapshotBlocks = new CopyOnWriteArrayList<>();
+        Disposable subscription = new Vitej(webSocketService).snapshotBlockFlowable().subscribe(snapshotBlocks::add);
+        try {
+            Assert.assertEquals(1, webSocketService.getActiveSubscriptions().size());
+            await(() -> server.getSubscriptionCount() == 1);
+            server.getLedger().produceSnapshotBlock();
+            await(() -> snapshotBlocks.size() == 1);
+        } finally {
+            subscription.dispose();
+        }
+    }
+
+    @Test
+    public void testCloseStopsServiceThread() throws Exception {
+        Set<String> before = serviceThreads();
+        WebSocketService service = new WebSocketService(server.getWebSocketUrl());
+        CountDownLatch connected = new CountDownLatch(1);
+        service.setConnectionListener((s, isConnected) -> connected.countDown());
+        service.connect();
+        Assert.assertTrue(connected.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(before.containsAll(serviceThreads()));
+
+        service.close();
+        await(() -> before.containsAll(serviceThreads()));
+    }
+
+    private static Set<String> serviceThreads() {
+        Set<String> names = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().matches("vitej-ws-\\d+")) {
+                names.add(thread.getName());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotBlockReplies() throws Exception {
+        Vitej vitej = new Vitej(webSocketService);
+        CountDownLatch release = new CountDownLatch(1);
+        List<SnapshotBlockNotification> snapshotBlocks = new CopyOnWriteArrayList<>();
+        Disposable subscription = vitej.snapshotBlockFlowable().subscribe(notification -> {
+            release.await();
+            snapshotBlocks.add(notification);
+        });
+        try {
+            server.getLedger().produceSnapshotBlock();
+            server.getLedger().produceSnapshotBlock();
+            Assert.assertEquals(Long.valueOf(3), vitej.getSnapshotChainHeight().send().getHeight());
+            release.countDown();
+            await(() -> snapshotBlocks.size() == 2);
+            Assert.assertEquals(Long.valueOf(2), snapshotBlocks.get(0).getParams().getResult().get(0).getHeight());
+        } finally {
+            subscription.dispose();
+        }
+    }
+
+    @Test
+    public void testRequestTimeout() throws IOException {
+        Vitej vitej = new Vitej(webSocketService);
+        server.setLatency(300, 300, TimeUnit.MILLISECONDS);
+        webSocketService.setRequestTimeout(50, TimeUnit.MILLISECONDS);
+        try {
+            vitej.getSnapshotChainHeight().send();
+            Assert.fail("request should time out");
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(e.getMessage().contains("timed out"));
+        }
+
+        webSocketService.setRequestTimeout(5, TimeUnit.SECONDS);
+        try {
+            vitej.getSnapshotChainHeight().withDeadline(Duration.ofMillis(50)).send();
+            Assert.fail("request should time out");
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(e.getMessage().contains("timed out"));
+        }
+        Assert.assertEquals(Long.valueOf(1), vitej.getSnapshotChainHeight().send().getHeight());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+}
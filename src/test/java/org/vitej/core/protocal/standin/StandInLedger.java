@@ -0,0 +1,343 @@
+package org.vitej.core.protocal.standin;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.vitej.core.constants.CommonConstants;
+import org.vitej.core.protocol.ProtocolHelper;
+import org.vitej.core.protocol.methods.Address;
+import org.vitej.core.protocol.methods.Hash;
+import org.vitej.core.protocol.methods.TokenId;
+import org.vitej.core.protocol.methods.request.TransactionParams;
+import org.vitej.core.utils.BlockUtils;
+import org.vitej.core.utils.BytesUtils;
+import org.vitej.core.wallet.Crypto;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory ledger behind {@link StandInServer}. Accepts raw transactions after checking their
+ * hash, signature and position in the account chain, and snapshots them when a snapshot block
+ * is produced. Blocks are kept as the JSON objects gvite would return.
+ * Balances and quota are not checked.
+ */
+public class StandInLedger {
+    private static final ObjectMapper MAPPER = ProtocolHelper.getObjectMapper();
+
+    /**
+     * Receives the blocks the ledger accepts, on the thread that added them
+     */
+    public interface Listener {
+        void onAccountBlock(ObjectNode block);
+
+        void onSnapshotBlock(ObjectNode block);
+    }
+
+    private final Map<String, ObjectNode> accountBlockByHash = new HashMap<>();
+    private final Map<String, List<ObjectNode>> accountChains = new HashMap<>();
+    private final List<ObjectNode> unsnapshotted = new ArrayList<>();
+    private final Map<String, Map<String, ObjectNode>> unreceivedByAddress = new HashMap<>();
+    private final List<ObjectNode> snapshotChain = new ArrayList<>();
+    private final Map<String, Long> snapshotHeightByHash = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public StandInLedger() {
+        addSnapshotBlock(snapshotBlock(CommonConstants.EMPTY_HASH, 1, MAPPER.createObjectNode()));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Check a raw transaction as gvite would and append it to its account chain
+     *
+     * @param json Transaction in the format of ledger_sendRawTransaction
+     * @return The new account block
+     * @throws IllegalArgumentException The transaction is invalid
+     */
+    public ObjectNode sendRawTransaction(JsonNode json) {
+        TransactionParams tx = toTransaction(json);
+        if (tx.getBlockType() == null || tx.getHeightRaw() == null || tx.getPreviousHashRaw() == null
+                || tx.getAddressRaw() == null || tx.getHashRaw() == null
+                || tx.getSignatureRaw() == null || tx.getPublicKeyRaw() == null) {
+            throw new IllegalArgumentException("missing transaction fields");
+        }
+        if (!Address.publicKeyToAddress(tx.getPublicKeyRaw()).equals(tx.getAddressRaw())) {
+            throw new IllegalArgumentException("public key does not match address");
+        }
+        boolean send = BlockUtils.isSendBlock(tx.getBlockType());
+        if (send ? tx.getToAddressRaw() == null || tx.getTokenIdRaw() == null : tx.getSendBlockHashRaw() == null) {
+            throw new IllegalArgumentException("missing transaction fields");
+        }
+        if (tx.getAmountRaw() == null) {
+            tx.setAmount(BigInteger.ZERO);
+        }
+        if (tx.getFeeRaw() == null) {
+            tx.setFee(BigInteger.ZERO);
+        }
+        if (!BlockUtils.computeHash(tx).equals(tx.getHashRaw())) {
+            throw new IllegalArgumentException("verify hash failed");
+        }
+        if (!Crypto.verify(tx.getSignatureRaw(), tx.getHashRaw().getBytes(), tx.getPublicKeyRaw())) {
+            throw new IllegalArgumentException("verify signature failed");
+        }
+
+        ObjectNode block;
+        synchronized (this) {
+            List<ObjectNode> chain = accountChains.computeIfAbsent(tx.getAddress(), address -> new ArrayList<>());
+            String previousHash = chain.isEmpty() ? CommonConstants.EMPTY_HASH.toString() : chain.get(chain.size() - 1).get("hash").asText();
+            if (tx.getHeightRaw() != chain.size() + 1 || !previousHash.equals(tx.getPreviousHash())) {
+                throw new IllegalArgumentException("verify prevBlock failed, incorrect use of prevHash or fork happened");
+            }
+            ObjectNode sendBlock = null;
+            if (!send) {
+                sendBlock = accountBlockByHash.get(tx.getSendBlockHash());
+                if (sendBlock == null || !tx.getAddress().equals(sendBlock.get("toAddress").asText())) {
+                    throw new IllegalArgumentException("send block not exist");
+                }
+                if (sendBlock.hasNonNull("receiveBlockHash")) {
+                    throw new IllegalArgumentException("block is already received successfully");
+                }
+            }
+            ObjectNode stored = accountBlock(tx, sendBlock);
+            if (sendBlock != null) {
+                sendBlock.put("receiveBlockHeight", tx.getHeight());
+                sendBlock.put("receiveBlockHash", tx.getHash());
+                unreceivedByAddress.get(tx.getAddress()).remove(tx.getSendBlockHash());
+            } else {
+                unreceivedByAddress.computeIfAbsent(tx.getToAddress(), address -> new LinkedHashMap<>()).put(tx.getHash(), stored);
+            }
+            chain.add(stored);
+            accountBlockByHash.put(tx.getHash(), stored);
+            unsnapshotted.add(stored);
+            block = view(stored);
+        }
+        for (Listener listener : listeners) {
+            listener.onAccountBlock(block);
+        }
+        return block;
+    }
+
+    /**
+     * Snapshot all account blocks accepted since the previous snapshot block
+     *
+     * @return The new snapshot block
+     */
+    public ObjectNode produceSnapshotBlock() {
+        ObjectNode block;
+        synchronized (this) {
+            ObjectNode latest = snapshotChain.get(snapshotChain.size() - 1);
+            ObjectNode snapshotData = MAPPER.createObjectNode();
+            long height = latest.get("height").asLong() + 1;
+            block = snapshotBlock(new Hash(latest.get("hash").asText()), height, snapshotData);
+            for (ObjectNode accountBlock : unsnapshotted) {
+                accountBlock.put("firstSnapshotHash", block.get("hash").asText());
+                snapshotData.putObject(accountBlock.get("address").asText())
+                        .put("height", accountBlock.get("height").asLong())
+                        .put("hash", accountBlock.get("hash").asText());
+            }
+            unsnapshotted.clear();
+            addSnapshotBlock(block);
+            block = block.deepCopy();
+        }
+        for (Listener listener : listeners) {
+            listener.onSnapshotBlock(block);
+        }
+        return block;
+    }
+
+    public synchronized ObjectNode getAccountBlockByHash(String hash) {
+        return view(accountBlockByHash.get(hash));
+    }
+
+    public synchronized ObjectNode getAccountBlockByHeight(String address, long height) {
+        List<ObjectNode> chain = accountChains.get(address);
+        return chain == null || height < 1 || height > chain.size() ? null : view(chain.get((int) height - 1));
+    }
+
+    public synchronized ObjectNode getLatestAccountBlock(String address) {
+        List<ObjectNode> chain = accountChains.get(address);
+        return chain == null || chain.isEmpty() ? null : view(chain.get(chain.size() - 1));
+    }
+
+    /**
+     * Return account blocks of an address, latest first
+     */
+    public synchronized List<ObjectNode> getAccountBlocksByAddress(String address, int index, int count) {
+        List<ObjectNode> chain = accountChains.getOrDefault(address, new ArrayList<>());
+        List<ObjectNode> blocks = new ArrayList<>();
+        for (int i = chain.size() - 1 - index * count; i >= 0 && blocks.size() < count; i--) {
+            blocks.add(view(chain.get(i)));
+        }
+        return blocks;
+    }
+
+    /**
+     * Return send blocks to an address that are not received yet, oldest first
+     */
+    public synchronized List<ObjectNode> getUnreceivedBlocksByAddress(String address, int index, int count) {
+        List<ObjectNode> blocks = new ArrayList<>();
+        int skip = index * count;
+        for (ObjectNode block : unreceivedByAddress.getOrDefault(address, Collections.emptyMap()).values()) {
+            if (blocks.size() == count) {
+                break;
+            }
+            if (skip-- <= 0) {
+                blocks.add(view(block));
+            }
+        }
+        return blocks;
+    }
+
+    public synchronized int getAccountBlockCount(String address) {
+        return accountChains.getOrDefault(address, new ArrayList<>()).size();
+    }
+
+    public synchronized ObjectNode getSnapshotBlockByHeight(long height) {
+        return height < 1 || height > snapshotChain.size() ? null : snapshotChain.get((int) height - 1).deepCopy();
+    }
+
+    public synchronized ObjectNode getSnapshotBlockByHash(String hash) {
+        Long height = snapshotHeightByHash.get(hash);
+        return height == null ? null : getSnapshotBlockByHeight(height);
+    }
+
+    public synchronized ObjectNode getLatestSnapshotBlock() {
+        return snapshotChain.get(snapshotChain.size() - 1).deepCopy();
+    }
+
+    public synchronized long getSnapshotChainHeight() {
+        return snapshotChain.size();
+    }
+
+    private ObjectNode accountBlock(TransactionParams tx, ObjectNode sendBlock) {
+        ObjectNode block = MAPPER.createObjectNode();
+        block.put("blockType", tx.getBlockType());
+        block.put("height", tx.getHeight());
+        block.put("hash", tx.getHash());
+        block.put("previousHash", tx.getPreviousHash());
+        block.put("address", tx.getAddress());
+        block.put("publicKey", tx.getPublicKey());
+        block.put("producer", tx.getAddress());
+        if (sendBlock == null) {
+            block.put("fromAddress", tx.getAddress());
+            block.put("toAddress", tx.getToAddress());
+            block.put("sendBlockHash", CommonConstants.EMPTY_HASH.toString());
+            block.put("tokenId", tx.getTokenId());
+            block.put("amount", tx.getAmount());
+            block.put("fee", tx.getFee());
+        } else {
+            block.put("fromAddress", sendBlock.get("address").asText());
+            block.put("toAddress", tx.getAddress());
+            block.put("sendBlockHash", tx.getSendBlockHash());
+            block.set("tokenId", sendBlock.get("tokenId"));
+            block.set("amount", sendBlock.get("amount"));
+            block.set("fee", sendBlock.get("fee"));
+        }
+        block.put("data", tx.getData());
+        block.put("difficulty", tx.getDifficulty());
+        block.put("nonce", tx.getNonce());
+        block.put("signature", tx.getSignature());
+        block.put("quotaByStake", "0");
+        block.put("totalQuota", "0");
+        block.putNull("vmLogHash");
+        block.putNull("firstSnapshotHash");
+        block.putNull("receiveBlockHeight");
+        block.putNull("receiveBlockHash");
+        block.put("timestamp", System.currentTimeMillis() / 1000);
+        return block;
+    }
+
+    private ObjectNode snapshotBlock(Hash previousHash, long height, ObjectNode snapshotData) {
+        ObjectNode block = MAPPER.createObjectNode();
+        block.put("hash", Hash.dataToHash(previousHash.getBytes(), BytesUtils.longToBytes(height)).toString());
+        block.put("previousHash", previousHash.toString());
+        block.put("height", height);
+        block.put("producer", CommonConstants.EMPTY_ADDRESS.toString());
+        block.put("version", 1);
+        block.set("snapshotData", snapshotData);
+        block.put("timestamp", System.currentTimeMillis() / 1000);
+        return block;
+    }
+
+    private void addSnapshotBlock(ObjectNode block) {
+        snapshotChain.add(block);
+        snapshotHeightByHash.put(block.get("hash").asText(), block.get("height").asLong());
+    }
+
+    /**
+     * Copy of an account block with its current number of confirmations
+     */
+    private ObjectNode view(ObjectNode block) {
+        if (block == null) {
+            return null;
+        }
+        ObjectNode copy = block.deepCopy();
+        Long snapshotHeight = block.hasNonNull("firstSnapshotHash") ? snapshotHeightByHash.get(block.get("firstSnapshotHash").asText()) : null;
+        copy.put("confirmations", String.valueOf(snapshotHeight == null ? 0 : snapshotChain.size() - snapshotHeight + 1));
+        return copy;
+    }
+
+    private static TransactionParams toTransaction(JsonNode json) {
+        TransactionParams tx = new TransactionParams();
+        String value;
+        if ((value = text(json, "blockType")) != null) {
+            tx.setBlockType(Integer.parseInt(value));
+        }
+        if ((value = text(json, "height")) != null) {
+            tx.setHeight(Long.parseLong(value));
+        }
+        if ((value = text(json, "previousHash")) != null) {
+            tx.setPreviousHash(new Hash(value));
+        }
+        if ((value = text(json, "address")) != null) {
+            tx.setAddress(new Address(value));
+        }
+        if ((value = text(json, "toAddress")) != null) {
+            tx.setToAddress(new Address(value));
+        }
+        if ((value = text(json, "sendBlockHash")) != null) {
+            tx.setSendBlockHash(new Hash(value));
+        }
+        if ((value = text(json, "tokenId")) != null) {
+            tx.setTokenId(new TokenId(value));
+        }
+        if ((value = text(json, "amount")) != null) {
+            tx.setAmount(new BigInteger(value));
+        }
+        if ((value = text(json, "fee")) != null) {
+            tx.setFee(new BigInteger(value));
+        }
+        if ((value = text(json, "difficulty")) != null) {
+            tx.setDifficulty(new BigInteger(value));
+        }
+        if ((value = text(json, "hash")) != null) {
+            tx.setHash(new Hash(value));
+        }
+        tx.setData(BytesUtils.base64ToBytes(text(json, "data")));
+        tx.setNonce(BytesUtils.base64ToBytes(text(json, "nonce")));
+        tx.setSignature(BytesUtils.base64ToBytes(text(json, "signature")));
+        tx.setPublicKey(BytesUtils.base64ToBytes(text(json, "publicKey")));
+        return tx;
+    }
+
+    /**
+     * Text of a field, null when missing or empty as gvite treats both alike
+     */
+    private static String text(JsonNode json, String field) {
+        JsonNode node = json.get(field);
+        return node == null || node.isNull() || node.asText().isEmpty() ? null : node.asText();
+    }
+}
@@ -0,0 +1,484 @@
+package org.vitej.core.protocal.standin;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.vitej.core.protocol.ProtocolHelper;
+import org.vitej.core.utils.BlockUtils;
+import org.vitej.core.utils.BytesUtils;
+
+import javax.net.ServerSocketFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded stand-in for a gvite node, for tests and benchmarks that should not depend on a live
+ * chain. Serves JSON-RPC over HTTP, single and batch, and over WebSocket including
+ * subscriptions, backed by a {@link StandInLedger}.
+ * <p>
+ * Served methods: the ledger_* queries about account blocks, snapshot blocks and account info,
+ * ledger_sendRawTransaction, ledger_getPoWDifficulty (never requires PoW), util_getPoWNonce,
+ * net_syncInfo, subscribe_subscribe and subscribe_unsubscribe. Other methods get a
+ * "method not found" error.
+ * <p>
+ * Latency is added before every reply, drawn uniformly between the configured minimum and
+ * maximum. With an error rate, that share of HTTP requests fails with status 503 and of
+ * WebSocket requests with a JSON-RPC error.
+ */
+public class StandInServer implements Closeable {
+    public static final int METHOD_NOT_FOUND = -32601;
+    public static final int INVALID_PARAMS = -32602;
+    public static final int SERVER_ERROR = -32000;
+
+    private static final ObjectMapper MAPPER = ProtocolHelper.getObjectMapper();
+
+    private final MockWebServer server = new MockWebServer();
+    private final StandInLedger ledger;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("vitej-standin-%d").setDaemon(true).build());
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Set<WebSocket> sockets = ConcurrentHashMap.newKeySet();
+    private final AtomicLong subscriptionIds = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private volatile long minLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile double errorRate;
+
+    public StandInServer() {
+        this(new StandInLedger());
+    }
+
+    public StandInServer(StandInLedger ledger) {
+        this.ledger = ledger;
+        ledger.addListener(new StandInLedger.Listener() {
+            @Override
+            public void onAccountBlock(ObjectNode block) {
+                publishAccountBlock(block);
+            }
+
+            @Override
+            public void onSnapshotBlock(ObjectNode block) {
+                publishSnapshotBlock(block);
+            }
+        });
+        server.setServerSocketFactory(new NoDelayServerSocketFactory());
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                return StandInServer.this.dispatch(request);
+            }
+        });
+    }
+
+    /**
+     * Add latency before every reply
+     *
+     * @param min  Minimum latency
+     * @param max  Maximum latency
+     * @param unit Time unit of min and max
+     * @return This server
+     */
+    public StandInServer setLatency(long min, long max, TimeUnit unit) {
+        Preconditions.checkArgument(0 <= min && min <= max, "invalid latency range");
+        this.minLatencyNanos = unit.toNanos(min);
+        this.maxLatencyNanos = unit.toNanos(max);
+        return this;
+    }
+
+    /**
+     * @param errorRate Share of requests that fail, between 0 and 1
+     * @return This server
+     */
+    public StandInServer setErrorRate(double errorRate) {
+        Preconditions.checkArgument(0 <= errorRate && errorRate <= 1, "errorRate must be between 0 and 1");
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Produce a snapshot block at a fixed rate, as gvite does every second
+     *
+     * @param period Interval between snapshot blocks
+     * @param unit   Time unit of period
+     * @return This server
+     */
+    public StandInServer produceSnapshotBlocks(long period, TimeUnit unit) {
+        scheduler.scheduleAtFixedRate(ledger::produceSnapshotBlock, period, period, unit);
+        return this;
+    }
+
+    public StandInServer start() throws IOException {
+        server.start();
+        return this;
+    }
+
+    public String getHttpUrl() {
+        return server.url("/").toString();
+    }
+
+    public String getWebSocketUrl() {
+        return getHttpUrl().replaceFirst("^http", "ws") + "ws";
+    }
+
+    public StandInLedger getLedger() {
+        return ledger;
+    }
+
+    /**
+     * @return Number of JSON-RPC requests received, batch elements counted one by one
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return Number of open subscribe_subscribe subscriptions
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Close every open WebSocket connection, as a node restart does
+     */
+    public void dropWebSockets() {
+        for (WebSocket socket : sockets) {
+            unsubscribeAll(socket);
+            socket.close(1012, "stand-in restart");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        server.shutdown();
+    }
+
+    private MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        if ("websocket".equalsIgnoreCase(request.getHeader("Upgrade"))) {
+            return new MockResponse().withWebSocketUpgrade(new SocketHandler());
+        }
+        TimeUnit.NANOSECONDS.sleep(latencyNanos());
+        if (injectError()) {
+            return new MockResponse().setResponseCode(503).setBody("stand-in error");
+        }
+        try {
+            JsonNode body = MAPPER.readTree(request.getBody().readUtf8());
+            JsonNode reply;
+            if (body.isArray()) {
+                ArrayNode replies = MAPPER.createArrayNode();
+                for (JsonNode element : body) {
+                    replies.add(handle(element, null));
+                }
+                reply = replies;
+            } else {
+                reply = handle(body, null);
+            }
+            return new MockResponse().setHeader("Content-Type", "application/json").setBody(MAPPER.writeValueAsString(reply));
+        } catch (IOException e) {
+            return new MockResponse().setHeader("Content-Type", "application/json")
+                    .setBody("{\"jsonrpc\":\"2.0\",\"id\":null,\"error\":{\"code\":-32700,\"message\":\"parse error\"}}");
+        }
+    }
+
+    private ObjectNode handle(JsonNode request, WebSocket socket) {
+        requestCount.incrementAndGet();
+        ObjectNode reply = MAPPER.createObjectNode();
+        reply.put("jsonrpc", "2.0");
+        reply.set("id", request.get("id"));
+        String method = request.path("method").asText();
+        JsonNode params = request.path("params");
+        try {
+            reply.set("result", call(method, params, socket));
+        } catch (UnsupportedOperationException e) {
+            error(reply, METHOD_NOT_FOUND, String.format("The method %s does not exist/is not available", method));
+        } catch (NullPointerException | IndexOutOfBoundsException | NumberFormatException e) {
+            error(reply, INVALID_PARAMS, "invalid params");
+        } catch (IllegalArgumentException e) {
+            error(reply, SERVER_ERROR, e.getMessage());
+        }
+        return reply;
+    }
+
+    private JsonNode call(String method, JsonNode params, WebSocket socket) {
+        switch (method) {
+            case "ledger_sendRawTransaction":
+                ledger.sendRawTransaction(params.get(0));
+                return null;
+            case "ledger_getAccountBlockByHash":
+            case "ledger_getCompleteBlockByHash":
+                return ledger.getAccountBlockByHash(params.get(0).asText());
+            case "ledger_getAccountBlockByHeight":
+                return ledger.getAccountBlockByHeight(params.get(0).asText(), Long.parseLong(params.get(1).asText()));
+            case "ledger_getLatestAccountBlock":
+                return ledger.getLatestAccountBlock(params.get(0).asText());
+            case "ledger_getAccountBlocksByAddress":
+                return MAPPER.valueToTree(ledger.getAccountBlocksByAddress(params.get(0).asText(), params.get(1).asInt(), params.get(2).asInt()));
+            case "ledger_getUnreceivedBlocksByAddress":
+                return MAPPER.valueToTree(ledger.getUnreceivedBlocksByAddress(params.get(0).asText(), params.get(1).asInt(), params.get(2).asInt()));
+            case "ledger_getAccountInfoByAddress":
+                return MAPPER.createObjectNode()
+                        .put("address", params.get(0).asText())
+                        .put("blockCount", String.valueOf(ledger.getAccountBlockCount(params.get(0).asText())))
+                        .set("balanceInfoMap", MAPPER.createObjectNode());
+            case "ledger_getSnapshotChainHeight":
+                return MAPPER.getNodeFactory().textNode(String.valueOf(ledger.getSnapshotChainHeight()));
+            case "ledger_getLatestSnapshotHash":
+                return ledger.getLatestSnapshotBlock().get("hash");
+            case "ledger_getLatestSnapshotBlock":
+                return ledger.getLatestSnapshotBlock();
+            case "ledger_getSnapshotBlockByHash":
+                return ledger.getSnapshotBlockByHash(params.get(0).asText());
+            case "ledger_getSnapshotBlockByHeight":
+                return ledger.getSnapshotBlockByHeight(Long.parseLong(params.get(0).asText()));
+            case "ledger_getSnapshotBlocks":
+                return getSnapshotBlocks(Long.parseLong(params.get(0).asText()), params.get(1).asInt());
+            case "ledger_getPoWDifficulty":
+                return MAPPER.createObjectNode()
+                        .put("requiredQuota", "21000")
+                        .put("difficulty", "")
+                        .put("qc", "0")
+                        .put("isCongestion", false);
+            case "util_getPoWNonce":
+                byte[] nonce = new byte[8];
+                ThreadLocalRandom.current().nextBytes(nonce);
+                return MAPPER.getNodeFactory().textNode(BytesUtils.bytesToBase64(nonce));
+            case "net_syncInfo":
+                String height = String.valueOf(ledger.getSnapshotChainHeight());
+                return MAPPER.createObjectNode()
+                        .put("from", "1")
+                        .put("to", height)
+                        .put("current", height)
+                        .put("state", 2)
+                        .put("status", "Sync done");
+            case "subscribe_subscribe":
+                return subscribe(params, socket);
+            case "subscribe_unsubscribe":
+                return MAPPER.getNodeFactory().booleanNode(subscriptions.remove(params.get(0).asText()) != null);
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+
+    /**
+     * Snapshot blocks from a height downwards, as gvite returns them
+     */
+    private JsonNode getSnapshotBlocks(long height, int count) {
+        ArrayNode blocks = MAPPER.createArrayNode();
+        for (long h = height; h >= 1 && blocks.size() < count; h--) {
+            ObjectNode block = ledger.getSnapshotBlockByHeight(h);
+            if (block != null) {
+                blocks.add(block);
+            }
+        }
+        return blocks;
+    }
+
+    private JsonNode subscribe(JsonNode params, WebSocket socket) {
+        if (socket == null) {
+            throw new IllegalArgumentException("notifications not supported");
+        }
+        if (!sockets.contains(socket)) {
+            throw new IllegalArgumentException("connection closed");
+        }
+        String type = params.get(0).asText();
+        String address = params.has(1) ? params.get(1).asText() : null;
+        switch (type) {
+            case "createSnapshotBlockSubscription":
+            case "createAccountBlockSubscription":
+                break;
+            case "createAccountBlockSubscriptionByAddress":
+            case "createUnreceivedBlockSubscriptionByAddress":
+                Preconditions.checkArgument(address != null, "address required");
+                break;
+            default:
+                throw new UnsupportedOperationException(type);
+        }
+        String id = "0x" + Long.toHexString(subscriptionIds.incrementAndGet());
+        subscriptions.put(id, new Subscription(socket, type, address));
+        return MAPPER.getNodeFactory().textNode(id);
+    }
+
+    private void publishAccountBlock(ObjectNode block) {
+        String address = block.get("address").asText();
+        boolean send = BlockUtils.isSendBlock(block.get("blockType").asInt());
+        for (Map.Entry<String, Subscription> entry : subscriptions.entrySet()) {
+            Subscription subscription = entry.getValue();
+            ObjectNode result = MAPPER.createObjectNode().put("hash", block.get("hash").asText());
+            switch (subscription.type) {
+                case "createAccountBlockSubscription":
+                    break;
+                case "createAccountBlockSubscriptionByAddress":
+                    if (!address.equals(subscription.address)) {
+                        continue;
+                    }
+                    result.put("height", block.get("height").asText());
+                    break;
+                case "createUnreceivedBlockSubscriptionByAddress":
+                    if (send && subscription.address.equals(block.get("toAddress").asText())) {
+                        result.put("received", false);
+                    } else if (!send && subscription.address.equals(address)) {
+                        result.put("hash", block.get("sendBlockHash").asText()).put("received", true);
+                    } else {
+                        continue;
+                    }
+                    break;
+                default:
+                    continue;
+            }
+            notify(entry.getKey(), subscription, result.put("removed", false));
+        }
+    }
+
+    private void publishSnapshotBlock(ObjectNode block) {
+        for (Map.Entry<String, Subscription> entry : subscriptions.entrySet()) {
+            if ("createSnapshotBlockSubscription".equals(entry.getValue().type)) {
+                notify(entry.getKey(), entry.getValue(), MAPPER.createObjectNode()
+                        .put("hash", block.get("hash").asText())
+                        .put("height", block.get("height").asText())
+                        .put("removed", false));
+            }
+        }
+    }
+
+    private void notify(String subscriptionId, Subscription subscription, ObjectNode result) {
+        ObjectNode notification = MAPPER.createObjectNode();
+        notification.put("jsonrpc", "2.0");
+        notification.put("method", "subscribe_subscription");
+        ObjectNode params = notification.putObject("params");
+        params.put("subscription", subscriptionId);
+        params.putArray("result").add(result);
+        subscription.socket.send(notification.toString());
+    }
+
+    private long latencyNanos() {
+        long min = minLatencyNanos;
+        long max = maxLatencyNanos;
+        return max > min ? ThreadLocalRandom.current().nextLong(min, max + 1) : min;
+    }
+
+    private boolean injectError() {
+        double rate = errorRate;
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private static void error(ObjectNode reply, int code, String message) {
+        reply.remove("result");
+        reply.putObject("error").put("code", code).put("message", message);
+    }
+
+    private void unsubscribeAll(WebSocket webSocket) {
+        sockets.remove(webSocket);
+        subscriptions.values().removeIf(subscription -> subscription.socket == webSocket);
+    }
+
+    private class SocketHandler extends WebSocketListener {
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            sockets.add(webSocket);
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            if (!scheduler.isShutdown()) {
+                scheduler.schedule(() -> reply(webSocket, text), latencyNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(code, null);
+            unsubscribeAll(webSocket);
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            unsubscribeAll(webSocket);
+        }
+
+        private void reply(WebSocket webSocket, String text) {
+            try {
+                JsonNode request = MAPPER.readTree(text);
+                ObjectNode reply;
+                if (injectError()) {
+                    reply = MAPPER.createObjectNode().put("jsonrpc", "2.0");
+                    reply.set("id", request.get("id"));
+                    error(reply, SERVER_ERROR, "stand-in error");
+                } else {
+                    reply = handle(request, webSocket);
+                }
+                webSocket.send(reply.toString());
+            } catch (IOException e) {
+                webSocket.send("{\"jsonrpc\":\"2.0\",\"id\":null,\"error\":{\"code\":-32700,\"message\":\"parse error\"}}");
+            }
+        }
+    }
+
+    /**
+     * MockWebServer writes the status line and headers apart from the body, without TCP_NODELAY
+     * the body waits for a delayed ACK on kept-alive connections
+     */
+    private static class NoDelayServerSocketFactory extends ServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new ServerSocket() {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = super.accept();
+                    socket.setTcpNoDelay(true);
+                    return socket;
+                }
+            };
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class Subscription {
+        private final WebSocket socket;
+        private final String type;
+        private final String address;
+
+        Subscription(WebSocket socket, String type, String address) {
+            this.socket = socket;
+            this.address = address;
+            this.type = type;
+        }
+    }
+}
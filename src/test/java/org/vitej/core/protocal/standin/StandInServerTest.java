@@ -0,0 +1,142 @@
+package org.vitej.core.protocal.standin;
+
+import io.reactivex.disposables.Disposable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vitej.core.constants.CommonConstants;
+import org.vitej.core.exception.ConnectionException;
+import org.vitej.core.protocol.HttpService;
+import org.vitej.core.protocol.Vitej;
+import org.vitej.core.protocol.methods.Address;
+import org.vitej.core.protocol.methods.enums.EBlockType;
+import org.vitej.core.protocol.methods.request.Request;
+import org.vitej.core.protocol.methods.request.TransactionParams;
+import org.vitej.core.protocol.methods.response.AccountBlock;
+import org.vitej.core.protocol.methods.response.AccountBlockResponse;
+import org.vitej.core.protocol.methods.response.AccountBlockWithHeightNotification;
+import org.vitej.core.protocol.methods.response.EmptyResponse;
+import org.vitej.core.protocol.methods.response.SnapshotBlockNotification;
+import org.vitej.core.protocol.websocket.WebSocketService;
+import org.vitej.core.wallet.KeyPair;
+import org.vitej.core.wallet.Wallet;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class StandInServerTest {
+    private static final List<String> MNEMONIC = Arrays.asList(
+            "main uncle palace wing carpet dutch electric kingdom gasp much ancient inquiry offer piece limit eager base bar tonight barrel prosper hundred man slice"
+                    .split(" "));
+
+    private final KeyPair sender = new Wallet(MNEMONIC).deriveKeyPair(0);
+    private final KeyPair receiver = new Wallet(MNEMONIC).deriveKeyPair(1);
+    private StandInServer server;
+    private HttpService httpService;
+    private Vitej vitej;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInServer().start();
+        httpService = new HttpService(server.getHttpUrl());
+        vitej = new Vitej(httpService);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        httpService.close();
+        server.close();
+    }
+
+    @Test
+    public void testSendAndReceiveTransaction() throws IOException {
+        EmptyResponse sendResponse = send(sender, receiver.getAddress()).send();
+        Assert.assertNull(sendResponse.getError());
+
+        AccountBlock sendBlock = vitej.getLatestAccountBlock(sender.getAddress()).send().getResult();
+        Assert.assertEquals(Long.valueOf(1), sendBlock.getHeight());
+        Assert.assertEquals(receiver.getAddress(), sendBlock.getToAddress());
+        Assert.assertNull(sendBlock.getFirstSnapshotHashRaw());
+        Assert.assertEquals(1, vitej.getUnreceivedBlocksByAddress(receiver.getAddress(), 0, 10).send().getResult().size());
+
+        Assert.assertNull(vitej.sendTransaction(receiver,
+                new TransactionParams().setBlockType(EBlockType.RECEIVE.getValue()).setSendBlockHash(sendBlock.getHash()),
+                true).send().getError());
+        server.getLedger().produceSnapshotBlock();
+
+        AccountBlockResponse received = vitej.getAccountBlockByHash(sendBlock.getHash()).send();
+        Assert.assertNotNull(received.getResult().getReceiveBlockHashRaw());
+        Assert.assertNotNull(received.getResult().getFirstSnapshotHashRaw());
+        Assert.assertEquals(Long.valueOf(2), vitej.getSnapshotChainHeight().send().getHeight());
+        Assert.assertTrue(vitej.getUnreceivedBlocksByAddress(receiver.getAddress(), 0, 10).send().getResult().isEmpty());
+    }
+
+    @Test
+    public void testInvalidTransactionIsRejected() throws IOException {
+        Request<?, EmptyResponse> request = send(sender, receiver.getAddress());
+        TransactionParams transaction = (TransactionParams) request.getParams().get(0);
+        transaction.setSignature(receiver.sign(transaction.getHashRaw().getBytes()));
+        EmptyResponse response = request.send();
+        Assert.assertNotNull(response.getError());
+        Assert.assertEquals("verify signature failed", response.getError().getMessage());
+        Assert.assertNull(vitej.getLatestAccountBlock(sender.getAddress()).send().getResult());
+    }
+
+    @Test
+    public void testUnknownMethod() throws IOException {
+        EmptyResponse response = new Request<>("ledger_doesNotExist", Arrays.asList(), httpService, EmptyResponse.class).send();
+        Assert.assertEquals(StandInServer.METHOD_NOT_FOUND, response.getError().getCode());
+    }
+
+    @Test
+    public void testErrorInjection() throws IOException {
+        server.setErrorRate(1);
+        try {
+            vitej.getSnapshotChainHeight().send();
+            Assert.fail("Expected an injected error");
+        } catch (ConnectionException e) {
+            Assert.assertEquals(503, e.getCode());
+        }
+    }
+
+    @Test
+    public void testSubscriptions() throws Exception {
+        WebSocketService webSocketService = new WebSocketService(server.getWebSocketUrl());
+        webSocketService.connect();
+        Vitej wsVitej = new Vitej(webSocketService);
+        List<AccountBlockWithHeightNotification> accountBlocks = new CopyOnWriteArrayList<>();
+        List<SnapshotBlockNotification> snapshotBlocks = new CopyOnWriteArrayList<>();
+        Disposable accountSubscription = wsVitej.accountBlockByAddressFlowable(sender.getAddress()).subscribe(accountBlocks::add);
+        Disposable snapshotSubscription = wsVitej.snapshotBlockFlowable().subscribe(snapshotBlocks::add);
+        try {
+            Assert.assertNull(send(sender, receiver.getAddress()).send().getError());
+            server.getLedger().produceSnapshotBlock();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while ((accountBlocks.isEmpty() || snapshotBlocks.isEmpty()) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, accountBlocks.size());
+            Assert.assertEquals(Long.valueOf(1), accountBlocks.get(0).getParams().getResult().get(0).getHeight());
+            Assert.assertEquals(1, snapshotBlocks.size());
+            Assert.assertEquals(Long.valueOf(2), snapshotBlocks.get(0).getParams().getResult().get(0).getHeight());
+        } finally {
+            accountSubscription.dispose();
+            snapshotSubscription.dispose();
+            webSocketService.close();
+        }
+    }
+
+    private Request<?, EmptyResponse> send(KeyPair keyPair, Address toAddress) throws IOException {
+        return vitej.sendTransaction(keyPair,
+                new TransactionParams().setBlockType(EBlockType.SEND_CALL.getValue())
+                        .setToAddress(toAddress)
+                        .setAmount(BigInteger.TEN)
+                        .setTokenId(CommonConstants.VITE_TOKEN_ID),
+                true);
+    }
+}